@@ -0,0 +1,299 @@
+package com.securechat.bench;
+
+import com.securechat.util.MessageCodec;
+import com.securechat.util.SecurityUtil;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import javax.crypto.SecretKey;
+
+// Compares stored size and CPU cost of plain versus compress-then-encrypt over a mixed chat corpus.
+// Text is generated from its own vocabulary, not from the dictionary, in two disjoint halves:
+// a training sample for DictionaryTrainer and a held-out corpus that every measurement uses.
+public class CompressionBenchmark {
+    private static final int MESSAGES_PER_KIND = 2000;
+    private static final int ROUNDS = 5;
+    private static final int[] THRESHOLDS = {0, 64, 128, 256, 512};
+
+    private static final String[] OPENERS = {"", "", "", "hey ", "morning! ", "quick q: ", "fyi ", "btw ", "hmm, ", "ah "};
+    private static final String[] THINGS = {
+        "staging box", "nightly job", "invoice export", "search index", "billing cron", "mobile build",
+        "onboarding flow", "feature flag", "load balancer", "backup", "migration", "vpn", "test suite", "sprint board"
+    };
+    private static final String[] STATES = {"flaky", "down", "green", "stuck", "slow", "fixed", "back up", "broken"};
+    private static final String[] ACTIONS = {"restart", "bump", "revert", "look into", "rerun", "pin", "ship", "review"};
+    private static final String[] TIMES = {"standup", "noon", "5pm", "friday", "the demo", "the retro", "my 1:1"};
+    private static final String[] PEOPLE = {"Priya", "Tomasz", "Aiko", "Mateo", "Grace", "Olu", "the oncall"};
+    private static final String[] ACKS = {"ok", "ty", "np", "nice", "+1", "on it", "brb", "haha", "yep", "will do", "got it"};
+    private static final String[] EXCEPTIONS = {
+        "java.io.IOException: Broken pipe", "java.util.ConcurrentModificationException",
+        "java.lang.IllegalStateException: pool closed", "java.net.SocketTimeoutException: Read timed out",
+        "java.lang.ArrayIndexOutOfBoundsException: Index 7 out of bounds for length 7"
+    };
+    private static final String[] CLASSES = {
+        "org.acme.billing.InvoiceService", "org.acme.search.Indexer", "org.acme.api.OrderController",
+        "io.netty.channel.AbstractChannelHandlerContext", "java.util.ArrayList$Itr", "sun.nio.ch.SocketDispatcher"
+    };
+    private static final String[] METHODS = {"export", "reindex", "placeOrder", "invokeChannelRead", "next", "write0"};
+    private static final String[] PY_FUNCS = {"handle", "load_rows", "parse_payload", "main", "run_once"};
+    private static final String[] PY_ERRORS = {"KeyError: 'user_id'", "ValueError: invalid literal for int()",
+        "TimeoutError: timed out", "AttributeError: 'NoneType' object has no attribute 'get'"};
+    private static final String[] SERVICES = {"orders", "billing", "search", "auth-gw", "notifier"};
+    private static final String[] LOG_EVENTS = {"cache miss", "retrying upstream", "request served", "queue drained",
+        "token refreshed", "slow query"};
+    private static final String[] IDENTS = {"order", "total", "rows", "batch", "cursor", "payload", "retries", "result"};
+
+    public static void main(String[] args) throws Exception {
+        String[] kinds = {"chat", "paragraph", "stacktrace", "log", "code"};
+        String[][] training = new String[kinds.length][];
+        String[][] corpus = new String[kinds.length][];
+        Random trainRandom = new Random(1);
+        Random testRandom = new Random(2);
+        for (int k = 0; k < kinds.length; k++) {
+            training[k] = build(trainRandom, kinds[k]);
+            corpus[k] = heldOut(build(testRandom, kinds[k]), training[k]);
+        }
+        SecretKey key = SecurityUtil.getStaticKey();
+
+        // Dictionaries: none, the shipped hand-written one, and two trained on the training half only
+        byte[] v1 = MessageCodec.getDictionaryV1();
+        List<String> sample = new ArrayList<>();
+        for (String[] messages : training) {
+            sample.addAll(Arrays.asList(messages));
+        }
+        String[] dictionaryNames = {"none", "v1", "trained", "trained16k"};
+        byte[][] dictionaries = {null, v1, DictionaryTrainer.train(sample, v1.length), DictionaryTrainer.train(sample, 16384)};
+        System.out.print("held-out messages, none of them in the training sample:");
+        for (int k = 0; k < kinds.length; k++) {
+            System.out.printf(" %s %d", kinds[k], corpus[k].length);
+        }
+        System.out.println();
+        System.out.printf("dictionaries: v1 %d B (hand-written), trained %d B, trained16k %d B%n%n",
+            v1.length, dictionaries[2].length, dictionaries[3].length);
+        System.out.printf("%-11s %8s", "deflate B", "raw");
+        for (String name : dictionaryNames) {
+            System.out.printf(" %10s %6s", name, "saved");
+        }
+        System.out.println();
+        for (int k = 0; k < corpus.length; k++) {
+            printDeflated(kinds[k], corpus[k], dictionaries);
+        }
+        printDeflated("mixed", mix(corpus, new Random(4)), dictionaries);
+        System.out.println();
+
+        for (int i = 0; i < 3; i++) { // warm-up
+            for (String[] messages : corpus) {
+                measure(messages, key, false, 0);
+                measure(messages, key, true, 128);
+            }
+        }
+
+        System.out.println("end to end with v1 (Base64 of format byte, IV and ciphertext)");
+        System.out.printf("%-11s %8s %9s %9s %7s %9s %9s %9s %9s%n", "corpus", "raw B", "plain B", "deflate B",
+            "saved", "enc us", "enc+z us", "dec us", "dec+z us");
+        for (int k = 0; k < corpus.length; k++) {
+            Result plain = measure(corpus[k], key, false, 0);
+            Result packed = measure(corpus[k], key, true, 0);
+            print(kinds[k], corpus[k].length, plain, packed);
+        }
+
+        String[] mixed = mix(corpus, new Random(4));
+        Result plain = measure(mixed, key, false, 0);
+        System.out.println();
+        System.out.printf("mixed corpus, %d messages, plain stored %,d B%n", mixed.length, plain.storedBytes);
+        for (int threshold : THRESHOLDS) {
+            Result packed = measure(mixed, key, true, threshold);
+            print("min=" + threshold, mixed.length, plain, packed);
+        }
+    }
+
+    // Average deflated payload per message, and the saving over raw UTF-8, for each dictionary
+    private static void printDeflated(String label, String[] messages, byte[][] dictionaries) throws Exception {
+        long raw = 0;
+        long[] deflated = new long[dictionaries.length];
+        for (String message : messages) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            raw += bytes.length;
+            for (int d = 0; d < dictionaries.length; d++) {
+                byte[] packed = MessageCodec.deflate(bytes, dictionaries[d]);
+                if (!Arrays.equals(MessageCodec.inflate(packed, dictionaries[d]), bytes)) {
+                    throw new IllegalStateException("Round trip failed for " + label);
+                }
+                // SecurityUtil stores incompressible text as is
+                deflated[d] += Math.min(packed.length, bytes.length);
+            }
+        }
+        System.out.printf("%-11s %8d", label, raw / messages.length);
+        for (long total : deflated) {
+            System.out.printf(" %10d %5.1f%%", total / messages.length, 100.0 * (raw - total) / raw);
+        }
+        System.out.println();
+    }
+
+    // Drops messages that also occur in the training sample, so the two halves are disjoint
+    private static String[] heldOut(String[] messages, String[] training) {
+        Set<String> seen = new HashSet<>(Arrays.asList(training));
+        List<String> kept = new ArrayList<>();
+        for (String message : messages) {
+            if (!seen.contains(message)) {
+                kept.add(message);
+            }
+        }
+        return kept.toArray(new String[0]);
+    }
+
+    private static void print(String label, int count, Result plain, Result packed) {
+        System.out.printf("%-11s %8d %9d %9d %6.1f%% %9.2f %9.2f %9.2f %9.2f%n", label,
+            plain.rawBytes / count, plain.storedBytes / count, packed.storedBytes / count,
+            100.0 * (plain.storedBytes - packed.storedBytes) / plain.storedBytes,
+            plain.encryptNanos / 1000.0 / count, packed.encryptNanos / 1000.0 / count,
+            plain.decryptNanos / 1000.0 / count, packed.decryptNanos / 1000.0 / count);
+    }
+
+    // Best of ROUNDS for timings; sizes are the same each round apart from random IVs
+    private static Result measure(String[] messages, SecretKey key, boolean compress, int threshold) throws Exception {
+        Result best = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            Result result = new Result();
+            String[] stored = new String[messages.length];
+            long start = System.nanoTime();
+            for (int i = 0; i < messages.length; i++) {
+                stored[i] = SecurityUtil.encrypt(messages[i], key, compress, threshold);
+            }
+            result.encryptNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < messages.length; i++) {
+                if (!SecurityUtil.decrypt(stored[i], key).equals(messages[i])) {
+                    throw new IllegalStateException("Round trip failed for message " + i);
+                }
+            }
+            result.decryptNanos = System.nanoTime() - start;
+            for (int i = 0; i < messages.length; i++) {
+                result.rawBytes += messages[i].getBytes(StandardCharsets.UTF_8).length;
+                result.storedBytes += stored[i].length();
+            }
+            if (best == null || result.encryptNanos + result.decryptNanos < best.encryptNanos + best.decryptNanos) {
+                best = result;
+            }
+        }
+        return best;
+    }
+
+    // Roughly what a team channel looks like: mostly short chat, with the occasional paste
+    private static String[] mix(String[][] corpus, Random random) {
+        int[] weights = {70, 15, 5, 5, 5};
+        List<String> mixed = new ArrayList<>();
+        for (int i = 0; i < MESSAGES_PER_KIND * 2; i++) {
+            int pick = random.nextInt(100);
+            int kind = 0;
+            while (pick >= weights[kind]) {
+                pick -= weights[kind];
+                kind++;
+            }
+            mixed.add(corpus[kind][random.nextInt(corpus[kind].length)]);
+        }
+        return mixed.toArray(new String[0]);
+    }
+
+    private static String[] build(Random random, String kind) {
+        String[] messages = new String[MESSAGES_PER_KIND];
+        for (int i = 0; i < messages.length; i++) {
+            StringBuilder sb = new StringBuilder();
+            switch (kind) {
+                case "chat":
+                    sb.append(pick(random, OPENERS)).append(sentence(random));
+                    break;
+                case "paragraph":
+                    for (int s = 3 + random.nextInt(5); s > 0; s--) {
+                        String sentence = sentence(random);
+                        sb.append(Character.toUpperCase(sentence.charAt(0))).append(sentence.substring(1)).append(". ");
+                    }
+                    break;
+                case "stacktrace":
+                    if (random.nextBoolean()) {
+                        sb.append(pick(random, EXCEPTIONS)).append('\n');
+                        for (int f = 8 + random.nextInt(20); f > 0; f--) {
+                            int c = random.nextInt(CLASSES.length);
+                            String simple = CLASSES[c].substring(CLASSES[c].lastIndexOf('.') + 1);
+                            sb.append("\tat ").append(CLASSES[c]).append('.').append(METHODS[c]).append('(')
+                                .append(simple).append(".java:").append(20 + random.nextInt(900)).append(")\n");
+                        }
+                    } else {
+                        sb.append("Traceback (most recent call last):\n");
+                        for (int f = 3 + random.nextInt(8); f > 0; f--) {
+                            String func = pick(random, PY_FUNCS);
+                            sb.append("  File \"/srv/app/").append(pick(random, SERVICES)).append('/').append(func)
+                                .append(".py\", line ").append(10 + random.nextInt(400)).append(", in ").append(func)
+                                .append("\n    ").append(pick(random, IDENTS)).append(" = ").append(func).append("(")
+                                .append(pick(random, IDENTS)).append(")\n");
+                        }
+                        sb.append(pick(random, PY_ERRORS));
+                    }
+                    break;
+                case "log":
+                    for (int l = 5 + random.nextInt(15); l > 0; l--) {
+                        sb.append(String.format("2025-04-%02dT%02d:%02d:%02d.%03dZ level=%s svc=%s msg=\"%s\" dur=%dms%n",
+                            1 + random.nextInt(28), random.nextInt(24), random.nextInt(60), random.nextInt(60),
+                            random.nextInt(1000), random.nextInt(5) == 0 ? "warn" : "info", pick(random, SERVICES),
+                            pick(random, LOG_EVENTS), random.nextInt(3000)));
+                    }
+                    break;
+                default:
+                    if (random.nextBoolean()) {
+                        sb.append("def ").append(pick(random, PY_FUNCS)).append("(").append(pick(random, IDENTS))
+                            .append("):\n");
+                        for (int l = 3 + random.nextInt(12); l > 0; l--) {
+                            sb.append("    if ").append(pick(random, IDENTS)).append(" is None:\n        return ")
+                                .append(pick(random, IDENTS)).append("[").append(random.nextInt(10)).append("]\n");
+                        }
+                    } else {
+                        sb.append("SELECT ").append(pick(random, IDENTS)).append("_id, ").append(pick(random, IDENTS))
+                            .append("\n  FROM ").append(pick(random, SERVICES).replace('-', '_'))
+                            .append("_").append(pick(random, IDENTS)).append("s\n");
+                        for (int l = 1 + random.nextInt(4); l > 0; l--) {
+                            sb.append(l == 1 ? " WHERE " : "   AND ").append(pick(random, IDENTS)).append(" > ")
+                                .append(random.nextInt(1000)).append('\n');
+                        }
+                        sb.append(" LIMIT ").append(10 * (1 + random.nextInt(10))).append(';');
+                    }
+                    break;
+            }
+            messages[i] = sb.toString();
+        }
+        return messages;
+    }
+
+    private static String sentence(Random random) {
+        switch (random.nextInt(7)) {
+            case 0:
+                return "did the " + pick(random, THINGS) + " " + pick(random, ACTIONS) + " go through yet?";
+            case 1:
+                return "the " + pick(random, THINGS) + " is " + pick(random, STATES) + " again";
+            case 2:
+                return "can someone " + pick(random, ACTIONS) + " the " + pick(random, THINGS) + "?";
+            case 3:
+                return "I'll " + pick(random, ACTIONS) + " the " + pick(random, THINGS) + " after " + pick(random, TIMES);
+            case 4:
+                return pick(random, PEOPLE) + " said the " + pick(random, THINGS) + " was " + pick(random, STATES);
+            case 5:
+                return "moving the " + pick(random, THINGS) + " chat to " + pick(random, TIMES);
+            default:
+                return pick(random, ACKS);
+        }
+    }
+
+    private static String pick(Random random, String[] options) {
+        return options[random.nextInt(options.length)];
+    }
+
+    private static class Result {
+        long rawBytes;
+        long storedBytes;
+        long encryptNanos;
+        long decryptNanos;
+    }
+}
@@ -0,0 +1,116 @@
+package com.securechat.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Builds a preset Deflate dictionary from a sample of messages. Candidates
+ * are runs of up to MAX_WORDS whole words. Each is scored by how many
+ * messages contain it times the bytes a back-reference saves. The best ones
+ * are kept until the byte budget is spent, and the most valuable go last,
+ * where Deflate reaches them with the shortest distances.
+ *
+ * Run with a sample file of one message per line, with line breaks inside a
+ * message written as \n, to print a dictionary as a Java string literal.
+ */
+public class DictionaryTrainer {
+    private static final int MAX_WORDS = 8;
+    private static final int MIN_LENGTH = 4;
+    private static final int MAX_LENGTH = 64;
+    private static final int MIN_MESSAGES = 3;
+    private static final int MAX_CANDIDATES = 20_000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: DictionaryTrainer <sample file> [dictionary bytes]");
+            System.exit(1);
+        }
+        List<String> sample = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            sample.add(line.replace("\\n", "\n"));
+        }
+        int maxBytes = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        String dictionary = new String(train(sample, maxBytes), StandardCharsets.UTF_8);
+        System.out.println("\"" + dictionary.replace("\\", "\\\\").replace("\"", "\\\"")
+            .replace("\n", "\\n").replace("\t", "\\t") + "\"");
+    }
+
+    public static byte[] train(List<String> sample, int maxBytes) {
+        Map<String, Integer> messageCounts = new HashMap<>();
+        for (String message : sample) {
+            for (String candidate : candidates(message)) {
+                messageCounts.merge(candidate, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> ranked = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : messageCounts.entrySet()) {
+            if (entry.getValue() >= MIN_MESSAGES) {
+                ranked.add(entry);
+            }
+        }
+        // A match costs about three bytes, so only the rest of each occurrence is saved
+        ranked.sort((a, b) -> Long.compare(score(b), score(a)));
+        if (ranked.size() > MAX_CANDIDATES) {
+            ranked = ranked.subList(0, MAX_CANDIDATES);
+        }
+
+        List<String> chosen = new ArrayList<>();
+        StringBuilder covered = new StringBuilder();
+        int bytes = 0;
+        for (Map.Entry<String, Integer> entry : ranked) {
+            String candidate = entry.getKey();
+            int length = candidate.getBytes(StandardCharsets.UTF_8).length;
+            if (bytes + length > maxBytes || covered.indexOf(candidate) >= 0) {
+                continue;
+            }
+            chosen.add(candidate);
+            covered.append(candidate).append('\u0000');
+            bytes += length;
+        }
+        Collections.reverse(chosen);
+        return String.join("", chosen).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long score(Map.Entry<String, Integer> entry) {
+        return (long) (entry.getValue() - 1) * (entry.getKey().length() - 3);
+    }
+
+    // Distinct word runs of a message, each with the whitespace that follows it
+    private static Set<String> candidates(String message) {
+        List<Integer> starts = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        for (int i = 0; i < message.length(); i++) {
+            boolean space = Character.isWhitespace(message.charAt(i));
+            if (!space && (i == 0 || Character.isWhitespace(message.charAt(i - 1)))) {
+                starts.add(i);
+            }
+            if (space && i > 0 && !Character.isWhitespace(message.charAt(i - 1))) {
+                ends.add(i + 1);
+            }
+        }
+        if (!message.isEmpty() && !Character.isWhitespace(message.charAt(message.length() - 1))) {
+            ends.add(message.length());
+        }
+        Set<String> found = new HashSet<>();
+        for (int w = 0; w < starts.size(); w++) {
+            for (int n = 0; n < MAX_WORDS && w + n < ends.size(); n++) {
+                int length = ends.get(w + n) - starts.get(w);
+                if (length > MAX_LENGTH) {
+                    break;
+                }
+                if (length >= MIN_LENGTH) {
+                    found.add(message.substring(starts.get(w), ends.get(w + n)));
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,61 @@
+package com.securechat.bench;
+
+import com.securechat.util.LoginRateLimiter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Measures LoginRateLimiter.tryAcquire throughput under a credential-stuffing style key spread
+public class RateLimiterBenchmark {
+    // Well above the 131,072 keys the limiter tracks, so eviction and overflow are exercised
+    private static final int KEYS = 400_000;
+    private static final long RUN_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "user:victim" + i;
+        }
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        run(keys, 1, 1000); // warm-up
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double opsPerSecond = run(keys, threads, RUN_MILLIS);
+            System.out.printf("threads=%-3d %,15.0f checks/s%n", threads, opsPerSecond);
+        }
+    }
+
+    private static double run(String[] keys, int threads, long millis) throws InterruptedException {
+        LoginRateLimiter limiter = new LoginRateLimiter(10, 5, 1000, 900_000);
+        LongAdder ops = new LongAdder();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            int seed = t * 7919;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long count = 0;
+                int i = seed % keys.length;
+                while ((count & 1023) != 0 || System.nanoTime() < deadline[0]) {
+                    limiter.tryAcquire(keys[i]);
+                    if (++i == keys.length) {
+                        i = 0;
+                    }
+                    count++;
+                }
+                ops.add(count);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        deadline[0] = begin + millis * 1_000_000;
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return ops.sum() / ((System.nanoTime() - begin) / 1e9);
+    }
+}
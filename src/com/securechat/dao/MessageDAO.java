@@ -8,12 +8,32 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+/*
+ * client_msg_id is the idempotency key used when the outbox replays a send:
+ * ALTER TABLE messages ADD COLUMN client_msg_id CHAR(36) NULL, ADD UNIQUE KEY uq_client_msg_id (client_msg_id);
+ */
 public class MessageDAO {
+    public enum SaveResult {
+        SAVED,
+        // The database could not be reached or was busy; the same insert may succeed later
+        RETRY,
+        // The row or the schema is unacceptable (too long, constraint violation, missing column); retrying cannot help
+        REJECTED
+    }
+    
     public boolean saveMessage(Message message) {
-        String sql = "INSERT INTO messages(sender_id, receiver_id, message_text, encrypted_message, iv) "
-                   + "VALUES(?, ?, ?, ?, ?)";
+        return storeMessage(message) == SaveResult.SAVED;
+    }
+    
+    public SaveResult storeMessage(Message message) {
+        String sql = "INSERT INTO messages(sender_id, receiver_id, message_text, encrypted_message, iv, client_msg_id) "
+                   + "VALUES(?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE message_id = message_id";
         
         try (Connection conn = DBConnection.getConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
@@ -23,21 +43,63 @@ public class MessageDAO {
             pstmt.setString(3, message.getMessageText());
             pstmt.setString(4, message.getEncryptedMessage());
             pstmt.setString(5, message.getIv());
+            pstmt.setString(6, message.getClientMessageId());
             
-            int affectedRows = pstmt.executeUpdate();
-            return affectedRows > 0;
+            // 0 rows means a replay whose client_msg_id is already stored, which is still a success
+            pstmt.executeUpdate();
+            return SaveResult.SAVED;
         } catch (SQLException e) {
             System.err.println("Error saving message: " + e.getMessage());
-            return false;
+            return isPermanent(e) ? SaveResult.REJECTED : SaveResult.RETRY;
         }
     }
     
+    /*
+     * SQLSTATE class 22 is a data exception, 23 an integrity constraint
+     * violation, and 42 a syntax error or access rule violation, such as an
+     * unknown column when a schema migration has not been applied.
+     */
+    private static boolean isPermanent(SQLException e) {
+        String state = e.getSQLState();
+        return state != null && (state.startsWith("22") || state.startsWith("23") || state.startsWith("42"));
+    }
+    
+    public List<Message> getMessagesByClientIds(Collection<String> clientMessageIds) {
+        List<Message> messages = new ArrayList<>();
+        if (clientMessageIds.isEmpty()) {
+            return messages;
+        }
+        StringBuilder sql = new StringBuilder("SELECT * FROM messages WHERE client_msg_id IN (");
+        for (int i = 0; i < clientMessageIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") ORDER BY sent_at ASC");
+        
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+            
+            int index = 1;
+            for (String id : clientMessageIds) {
+                pstmt.setString(index++, id);
+            }
+            
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                messages.add(readMessage(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving messages: " + e.getMessage());
+        }
+        return messages;
+    }
+    
     public List<Message> getConversation(int user1Id, int user2Id) {
         List<Message> messages = new ArrayList<>();
         String sql = "SELECT * FROM messages WHERE (sender_id = ? AND receiver_id = ?) "
                    + "OR (sender_id = ? AND receiver_id = ?) ORDER BY sent_at ASC";
         
-        try (Connection conn = DBConnection.getConnection();
+        try (Connection conn = DBConnection.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
             pstmt.setInt(1, user1Id);
@@ -48,19 +110,115 @@ public class MessageDAO {
             ResultSet rs = pstmt.executeQuery();
             
             while (rs.next()) {
-                Message message = new Message();
-                message.setMessageId(rs.getInt("message_id"));
-                message.setSenderId(rs.getInt("sender_id"));
-                message.setReceiverId(rs.getInt("receiver_id"));
-                message.setMessageText(rs.getString("message_text"));
-                message.setEncryptedMessage(rs.getString("encrypted_message"));
-                message.setIv(rs.getString("iv"));
-                message.setSentAt(rs.getTimestamp("sent_at"));
-                messages.add(message);
+                messages.add(readMessage(rs));
             }
         } catch (SQLException e) {
             System.err.println("Error retrieving messages: " + e.getMessage());
         }
         return messages;
     }
+    
+    // Latest page of one conversation, oldest first, or null if the query failed
+    public List<Message> getConversationPage(int user1Id, int user2Id, int pageSize) {
+        List<Message> messages = new ArrayList<>();
+        String sql = "SELECT * FROM messages WHERE (sender_id = ? AND receiver_id = ?) "
+                   + "OR (sender_id = ? AND receiver_id = ?) ORDER BY sent_at DESC, message_id DESC LIMIT ?";
+        
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            
+            pstmt.setInt(1, user1Id);
+            pstmt.setInt(2, user2Id);
+            pstmt.setInt(3, user2Id);
+            pstmt.setInt(4, user1Id);
+            pstmt.setInt(5, pageSize);
+            
+            ResultSet rs = pstmt.executeQuery();
+            
+            while (rs.next()) {
+                messages.add(readMessage(rs));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving messages: " + e.getMessage());
+            return null;
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+    
+    /*
+     * Latest page of each of the user's most recent conversations, keyed by
+     * partner id in recency order, each page oldest first. Both queries run on
+     * one connection and every page comes back from a single UNION ALL, so the
+     * cost is two round trips however many conversations are fetched.
+     */
+    public Map<Integer, List<Message>> getRecentConversationPages(int userId, int conversations, int pageSize) {
+        Map<Integer, List<Message>> pages = new LinkedHashMap<>();
+        String recentSql = "SELECT IF(sender_id = ?, receiver_id, sender_id) AS partner_id, MAX(sent_at) AS last_sent "
+                         + "FROM messages WHERE sender_id = ? OR receiver_id = ? "
+                         + "GROUP BY partner_id ORDER BY last_sent DESC LIMIT ?";
+        String pageSql = "(SELECT * FROM messages WHERE (sender_id = ? AND receiver_id = ?) "
+                       + "OR (sender_id = ? AND receiver_id = ?) ORDER BY sent_at DESC, message_id DESC LIMIT ?)";
+        
+        try (Connection conn = DBConnection.getReadConnection()) {
+            try (PreparedStatement pstmt = conn.prepareStatement(recentSql)) {
+                pstmt.setInt(1, userId);
+                pstmt.setInt(2, userId);
+                pstmt.setInt(3, userId);
+                pstmt.setInt(4, conversations);
+                
+                ResultSet rs = pstmt.executeQuery();
+                
+                while (rs.next()) {
+                    pages.put(rs.getInt("partner_id"), new ArrayList<>());
+                }
+            }
+            if (pages.isEmpty()) {
+                return pages;
+            }
+            
+            StringBuilder sql = new StringBuilder();
+            for (int i = 0; i < pages.size(); i++) {
+                sql.append(i == 0 ? pageSql : " UNION ALL " + pageSql);
+            }
+            try (PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+                int index = 1;
+                for (int partnerId : pages.keySet()) {
+                    pstmt.setInt(index++, userId);
+                    pstmt.setInt(index++, partnerId);
+                    pstmt.setInt(index++, partnerId);
+                    pstmt.setInt(index++, userId);
+                    pstmt.setInt(index++, pageSize);
+                }
+                
+                ResultSet rs = pstmt.executeQuery();
+                
+                while (rs.next()) {
+                    Message message = readMessage(rs);
+                    int partnerId = message.getSenderId() == userId ? message.getReceiverId() : message.getSenderId();
+                    pages.get(partnerId).add(message);
+                }
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving recent conversations: " + e.getMessage());
+            pages.clear();
+        }
+        for (List<Message> page : pages.values()) {
+            Collections.reverse(page);
+        }
+        return pages;
+    }
+    
+    private Message readMessage(ResultSet rs) throws SQLException {
+        Message message = new Message();
+        message.setMessageId(rs.getInt("message_id"));
+        message.setSenderId(rs.getInt("sender_id"));
+        message.setReceiverId(rs.getInt("receiver_id"));
+        message.setMessageText(rs.getString("message_text"));
+        message.setEncryptedMessage(rs.getString("encrypted_message"));
+        message.setIv(rs.getString("iv"));
+        message.setSentAt(rs.getTimestamp("sent_at"));
+        message.setClientMessageId(rs.getString("client_msg_id"));
+        return message;
+    }
 }
@@ -0,0 +1,199 @@
+package com.securechat.dao;
+
+import com.securechat.model.Message;
+import com.securechat.model.MessageEvent;
+import com.securechat.util.DBConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/*
+ * Append-only log of message status changes. Rows are small and never
+ * updated, so a receipt or an edit does not rewrite the encrypted message row.
+ * CREATE TABLE message_events (
+ *     event_id BIGINT AUTO_INCREMENT PRIMARY KEY,
+ *     client_msg_id CHAR(36) NOT NULL,
+ *     sender_id INT NOT NULL,
+ *     receiver_id INT NOT NULL,
+ *     actor_id INT NOT NULL,
+ *     event_type TINYINT NOT NULL,
+ *     encrypted_text TEXT NULL,
+ *     created_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3),
+ *     INDEX idx_events_receiver (receiver_id, event_id),
+ *     INDEX idx_events_sender (sender_id, event_id)
+ * );
+ */
+public class MessageEventDAO {
+    public boolean saveEvents(List<MessageEvent> events) {
+        if (events.isEmpty()) {
+            return true;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO message_events"
+            + "(client_msg_id, sender_id, receiver_id, actor_id, event_type, encrypted_text) VALUES ");
+        for (int i = 0; i < events.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, ?, ?, ?, ?)" : ", (?, ?, ?, ?, ?, ?)");
+        }
+
+        try (Connection conn = DBConnection.getBackgroundConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+
+            int index = 1;
+            for (MessageEvent event : events) {
+                pstmt.setString(index++, event.getClientMessageId());
+                pstmt.setInt(index++, event.getSenderId());
+                pstmt.setInt(index++, event.getReceiverId());
+                pstmt.setInt(index++, event.getActorId());
+                pstmt.setInt(index++, event.getType().getCode());
+                pstmt.setString(index++, event.getEncryptedText());
+            }
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error saving message events: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public long getLatestEventId() {
+        String sql = "SELECT COALESCE(MAX(event_id), 0) FROM message_events";
+
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            ResultSet rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return rs.getLong(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error getting latest event: " + e.getMessage());
+        }
+        return -1;
+    }
+
+    /*
+     * Events involving userId, as sender or receiver of the message, after the
+     * given event id. Incoming SENT events carry their message, joined in the
+     * same query so a lagging replica cannot return the event without it.
+     */
+    public List<MessageEvent> getEventsAfter(int userId, long afterEventId) {
+        String sql = "SELECT e.*, m.message_id, m.message_text, m.encrypted_message, m.iv, m.sent_at "
+                   + "FROM message_events e LEFT JOIN messages m "
+                   + "ON e.event_type = ? AND m.client_msg_id = e.client_msg_id "
+                   + "WHERE e.receiver_id = ? AND e.event_id > ? "
+                   + "UNION ALL "
+                   + "SELECT e.*, NULL, NULL, NULL, NULL, NULL FROM message_events e "
+                   + "WHERE e.sender_id = ? AND e.receiver_id != ? AND e.event_id > ? "
+                   + "ORDER BY event_id ASC";
+
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, MessageEvent.Type.SENT.getCode());
+            pstmt.setInt(2, userId);
+            pstmt.setLong(3, afterEventId);
+            pstmt.setInt(4, userId);
+            pstmt.setInt(5, userId);
+            pstmt.setLong(6, afterEventId);
+            ResultSet rs = pstmt.executeQuery();
+            List<MessageEvent> events = new ArrayList<>();
+            while (rs.next()) {
+                MessageEvent event = readEvent(rs);
+                events.add(event);
+                if (rs.getObject("message_id") != null) {
+                    Message message = new Message();
+                    message.setMessageId(rs.getInt("message_id"));
+                    message.setSenderId(event.getSenderId());
+                    message.setReceiverId(event.getReceiverId());
+                    message.setMessageText(rs.getString("message_text"));
+                    message.setEncryptedMessage(rs.getString("encrypted_message"));
+                    message.setIv(rs.getString("iv"));
+                    message.setSentAt(rs.getTimestamp("sent_at"));
+                    message.setClientMessageId(event.getClientMessageId());
+                    event.setMessage(message);
+                }
+            }
+            return events;
+        } catch (SQLException e) {
+            System.err.println("Error retrieving message events: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    // Returns null if the query failed, so callers can tell that apart from no events
+    public List<MessageEvent> getConversationEvents(int user1Id, int user2Id) {
+        String sql = "SELECT * FROM message_events WHERE (sender_id = ? AND receiver_id = ?) "
+                   + "OR (sender_id = ? AND receiver_id = ?) ORDER BY event_id ASC";
+
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            pstmt.setInt(1, user1Id);
+            pstmt.setInt(2, user2Id);
+            pstmt.setInt(3, user2Id);
+            pstmt.setInt(4, user1Id);
+            return readEvents(pstmt.executeQuery());
+        } catch (SQLException e) {
+            System.err.println("Error retrieving conversation events: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Events of every conversation between userId and the given partners, in one query; null if it failed
+    public List<MessageEvent> getConversationEvents(int userId, Collection<Integer> partnerIds) {
+        if (partnerIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        StringBuilder in = new StringBuilder();
+        for (int i = 0; i < partnerIds.size(); i++) {
+            in.append(i == 0 ? "?" : ", ?");
+        }
+        String sql = "SELECT * FROM message_events WHERE sender_id = ? AND receiver_id IN (" + in + ") "
+                   + "UNION ALL "
+                   + "SELECT * FROM message_events WHERE receiver_id = ? AND sender_id IN (" + in + ") "
+                   + "AND sender_id != ? ORDER BY event_id ASC";
+
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql)) {
+
+            int index = 1;
+            pstmt.setInt(index++, userId);
+            for (int partnerId : partnerIds) {
+                pstmt.setInt(index++, partnerId);
+            }
+            pstmt.setInt(index++, userId);
+            for (int partnerId : partnerIds) {
+                pstmt.setInt(index++, partnerId);
+            }
+            pstmt.setInt(index, userId);
+            return readEvents(pstmt.executeQuery());
+        } catch (SQLException e) {
+            System.err.println("Error retrieving conversation events: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<MessageEvent> readEvents(ResultSet rs) throws SQLException {
+        List<MessageEvent> events = new ArrayList<>();
+        while (rs.next()) {
+            events.add(readEvent(rs));
+        }
+        return events;
+    }
+
+    private MessageEvent readEvent(ResultSet rs) throws SQLException {
+        MessageEvent event = new MessageEvent();
+        event.setEventId(rs.getLong("event_id"));
+        event.setClientMessageId(rs.getString("client_msg_id"));
+        event.setSenderId(rs.getInt("sender_id"));
+        event.setReceiverId(rs.getInt("receiver_id"));
+        event.setActorId(rs.getInt("actor_id"));
+        event.setType(MessageEvent.Type.fromCode(rs.getInt("event_type")));
+        event.setEncryptedText(rs.getString("encrypted_text"));
+        event.setCreatedAt(rs.getTimestamp("created_at"));
+        return event;
+    }
+}
@@ -0,0 +1,82 @@
+package com.securechat.dao;
+
+import com.securechat.model.Presence;
+import com.securechat.util.DBConnection;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Expects:
+ * CREATE TABLE presence (
+ *     user_id INT PRIMARY KEY,
+ *     typing_to INT NOT NULL DEFAULT 0,
+ *     last_seen TIMESTAMP(3) NOT NULL,
+ *     INDEX idx_presence_last_seen (last_seen)
+ * );
+ */
+public class PresenceDAO {
+    // Writes all pending heartbeats (user id -> typing target, 0 when not typing) in one statement
+    public boolean saveHeartbeats(Map<Integer, Integer> heartbeats) {
+        if (heartbeats.isEmpty()) {
+            return true;
+        }
+        StringBuilder sql = new StringBuilder("INSERT INTO presence(user_id, typing_to, last_seen) VALUES ");
+        for (int i = 0; i < heartbeats.size(); i++) {
+            sql.append(i == 0 ? "(?, ?, NOW(3))" : ", (?, ?, NOW(3))");
+        }
+        sql.append(" ON DUPLICATE KEY UPDATE typing_to = VALUES(typing_to), last_seen = VALUES(last_seen)");
+
+        try (Connection conn = DBConnection.getBackgroundConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+
+            int index = 1;
+            for (Map.Entry<Integer, Integer> entry : heartbeats.entrySet()) {
+                pstmt.setInt(index++, entry.getKey());
+                pstmt.setInt(index++, entry.getValue());
+            }
+            pstmt.executeUpdate();
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error saving heartbeats: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Latest heartbeat of each given user, if it is within the last maxAgeMillis
+    public List<Presence> getHeartbeats(Collection<Integer> userIds, long maxAgeMillis) {
+        List<Presence> heartbeats = new ArrayList<>();
+        if (userIds.isEmpty()) {
+            return heartbeats;
+        }
+        StringBuilder sql = new StringBuilder("SELECT user_id, typing_to, last_seen FROM presence WHERE user_id IN (");
+        for (int i = 0; i < userIds.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(") AND last_seen >= NOW(3) - INTERVAL ? MICROSECOND");
+
+        try (Connection conn = DBConnection.getReadConnection();
+             PreparedStatement pstmt = conn.prepareStatement(sql.toString())) {
+
+            int index = 1;
+            for (int userId : userIds) {
+                pstmt.setInt(index++, userId);
+            }
+            pstmt.setLong(index, maxAgeMillis * 1000);
+            ResultSet rs = pstmt.executeQuery();
+
+            while (rs.next()) {
+                heartbeats.add(new Presence(rs.getInt("user_id"), rs.getInt("typing_to"),
+                    rs.getTimestamp("last_seen")));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving heartbeats: " + e.getMessage());
+        }
+        return heartbeats;
+    }
+}
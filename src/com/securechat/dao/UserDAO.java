@@ -32,7 +32,7 @@ public class UserDAO {
     public User authenticateUser(String username, String password) {
         String sql = "SELECT * FROM users WHERE username = ?";
         
-        try (Connection conn = DBConnection.getConnection();
+        try (Connection conn = DBConnection.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
             pstmt.setString(1, username);
@@ -62,7 +62,7 @@ public class UserDAO {
     String sql = "SELECT * FROM users WHERE user_id != ?";
     List<User> users = new ArrayList<>();
     
-    try (Connection conn = DBConnection.getConnection();
+    try (Connection conn = DBConnection.getReadConnection();
          PreparedStatement pstmt = conn.prepareStatement(sql)) {
         
         pstmt.setInt(1, excludedUserId);
@@ -84,7 +84,7 @@ public class UserDAO {
     public User getUserByUsername(String username) {
         String sql = "SELECT * FROM users WHERE username = ?";
         
-        try (Connection conn = DBConnection.getConnection();
+        try (Connection conn = DBConnection.getReadConnection();
              PreparedStatement pstmt = conn.prepareStatement(sql)) {
             
             pstmt.setString(1, username);
@@ -1,17 +1,42 @@
 package com.securechat.gui;
 
 import com.securechat.dao.MessageDAO;
+import com.securechat.dao.MessageEventDAO;
+import com.securechat.dao.PresenceDAO;
 import com.securechat.dao.UserDAO;
 import com.securechat.model.Message;
+import com.securechat.model.MessageEvent;
+import com.securechat.model.MessageState;
 import com.securechat.model.User;
+import com.securechat.service.HistoryPrefetcher;
+import com.securechat.service.MessageEventListener;
+import com.securechat.service.MessageEventService;
+import com.securechat.service.MessageOutbox;
+import com.securechat.service.PresenceService;
 import com.securechat.util.SecurityUtil;
 import javax.crypto.SecretKey;
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ChatMainFrame extends JFrame {
     private User currentUser;
@@ -24,6 +49,18 @@ public class ChatMainFrame extends JFrame {
     private UserDAO userDAO;
     private MessageDAO messageDAO;
     private SecretKey secretKey;
+    private PresenceService presenceService;
+    private MessageOutbox outbox;
+    private MessageEventService eventService;
+    private HistoryPrefetcher historyPrefetcher;
+    // The open conversation: partner, and one row per chatModel entry; only touched on the EDT
+    private User chatPartner;
+    private final List<ChatRow> chatRows = new ArrayList<>();
+    private final Map<String, Integer> rowIndexById = new HashMap<>();
+    private final Map<String, Integer> userIdsByName = new ConcurrentHashMap<>();
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    // Online contacts and who they are typing to (0 for nobody); only touched on the EDT
+    private final Map<Integer, Integer> onlineContacts = new HashMap<>();
     
     public ChatMainFrame(User user) {
         this.currentUser = user;
@@ -34,6 +71,19 @@ public class ChatMainFrame extends JFrame {
             secretKey = SecurityUtil.getStaticKey();
             initializeUI();
             loadUserList();
+            startPresence();
+            startEvents();
+            startHistory();
+            startOutbox();
+            addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    if (outbox != null) {
+                        outbox.stop();
+                    }
+                    eventService.stop();
+                }
+            });
         } catch (Exception e) {
             JOptionPane.showMessageDialog(this, "Error initializing encryption: " + e.getMessage(), 
                 "Error", JOptionPane.ERROR_MESSAGE);
@@ -56,6 +106,7 @@ public class ChatMainFrame extends JFrame {
         userList = new JList<>(userListModel);
         userList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         userList.setFixedCellWidth(150);
+        userList.setCellRenderer(new UserCellRenderer());
         userList.addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 loadChatWithSelectedUser();
@@ -69,6 +120,17 @@ public class ChatMainFrame extends JFrame {
         chatModel = new DefaultListModel<>();
         chatList = new JList<>(chatModel);
         chatList.setCellRenderer(new ChatCellRenderer());
+        chatList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                showMessageMenu(e);
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                showMessageMenu(e);
+            }
+        });
         
         JScrollPane chatScrollPane = new JScrollPane(chatList);
         chatScrollPane.setBorder(BorderFactory.createTitledBorder("Chat"));
@@ -77,6 +139,21 @@ public class ChatMainFrame extends JFrame {
         JPanel messagePanel = new JPanel(new BorderLayout());
         messageArea = new JTextArea(3, 20);
         messageArea.setLineWrap(true);
+        messageArea.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                notifyTyping();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                notifyTyping();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
+        });
         JScrollPane messageScrollPane = new JScrollPane(messageArea);
         
         sendButton = new JButton("Send");
@@ -105,11 +182,105 @@ public class ChatMainFrame extends JFrame {
         userListModel.addElement("user2");
     }
     
+    private void startPresence() {
+        presenceService = new PresenceService(new PresenceDAO());
+        presenceService.start(currentUser.getUserId());
+        
+        List<String> usernames = new ArrayList<>();
+        for (int i = 0; i < userListModel.size(); i++) {
+            usernames.add(userListModel.get(i));
+        }
+        // Resolve ids off the EDT, then subscribe to presence changes for the listed contacts
+        Thread resolver = new Thread(() -> {
+            for (String username : usernames) {
+                User user = userDAO.getUserByUsername(username);
+                if (user != null) {
+                    usersByName.put(username, user);
+                    userIdsByName.put(username, user.getUserId());
+                }
+            }
+            presenceService.watch(userIdsByName.values(), (userId, online, typingTo) ->
+                SwingUtilities.invokeLater(() -> {
+                    if (online) {
+                        onlineContacts.put(userId, typingTo);
+                    } else {
+                        onlineContacts.remove(userId);
+                    }
+                    userList.repaint();
+                }));
+        }, "presence-subscribe");
+        resolver.setDaemon(true);
+        resolver.start();
+    }
+    
+    private void startOutbox() {
+        try {
+            outbox = new MessageOutbox(messageDAO, currentUser.getUserId(), secretKey);
+            outbox.setStoredListener(eventService::recordSent);
+            outbox.setRejectedListener(message -> SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(this, "A message could not be delivered and was not sent.",
+                    "Error", JOptionPane.ERROR_MESSAGE)));
+            outbox.setStalledListener(message -> SwingUtilities.invokeLater(() ->
+                JOptionPane.showMessageDialog(this, "Messages cannot reach the server right now. "
+                    + "They are kept and will be sent when it is available again.",
+                    "Error", JOptionPane.ERROR_MESSAGE)));
+            outbox.start();
+        } catch (IOException e) {
+            // Without the journal, sends go straight to the database as before
+            System.err.println("Outbox unavailable: " + e.getMessage());
+            outbox = null;
+        }
+    }
+    
+    private void startEvents() {
+        eventService = new MessageEventService(new MessageEventDAO(), messageDAO);
+        eventService.addListener(new MessageEventListener() {
+            @Override
+            public void messageReceived(Message message) {
+                SwingUtilities.invokeLater(() -> {
+                    String text = decryptOrNull(message.getEncryptedMessage());
+                    historyPrefetcher.add(message, text);
+                    if (chatPartner != null && message.getSenderId() == chatPartner.getUserId()
+                            && !rowIndexById.containsKey(message.getClientMessageId())) {
+                        addChatRow(message, text);
+                        eventService.markRead(Collections.singletonList(message));
+                    }
+                });
+            }
+
+            @Override
+            public void messageStateChanged(MessageState state) {
+                SwingUtilities.invokeLater(() -> refreshChatRow(state.getClientMessageId()));
+            }
+        });
+        eventService.start(currentUser.getUserId());
+    }
+    
+    private void startHistory() {
+        historyPrefetcher = new HistoryPrefetcher(messageDAO, eventService, secretKey);
+        historyPrefetcher.start(currentUser.getUserId());
+    }
+    
+    // Uses the id resolved at startup when there is one, so selecting a contact needs no lookup
+    private User findUser(String username) {
+        User user = usersByName.get(username);
+        return user != null ? user : userDAO.getUserByUsername(username);
+    }
+    
+    private void notifyTyping() {
+        String selectedUsername = userList.getSelectedValue();
+        Integer receiverId = selectedUsername == null ? null : userIdsByName.get(selectedUsername);
+        if (presenceService != null && receiverId != null) {
+            presenceService.typing(currentUser.getUserId(),
+                messageArea.getDocument().getLength() > 0 ? receiverId : 0);
+        }
+    }
+    
     private void loadChatWithSelectedUser() {
         String selectedUsername = userList.getSelectedValue();
         if (selectedUsername == null) return;
         
-        User selectedUser = userDAO.getUserByUsername(selectedUsername);
+        User selectedUser = findUser(selectedUsername);
         if (selectedUser == null) {
             JOptionPane.showMessageDialog(this, "User not found", 
                 "Error", JOptionPane.ERROR_MESSAGE);
@@ -117,21 +288,171 @@ public class ChatMainFrame extends JFrame {
         }
         
         chatModel.clear();
+        chatRows.clear();
+        rowIndexById.clear();
+        chatPartner = selectedUser;
+        // Snapshot the outbox first so a message drained during the query is still shown once
+        List<Message> pending = outbox != null
+            ? outbox.getPending(currentUser.getUserId(), selectedUser.getUserId())
+            : new ArrayList<>();
+        
+        List<HistoryPrefetcher.Entry> history = historyPrefetcher.getHistory(selectedUser.getUserId());
+        if (history != null) {
+            showCachedHistory(selectedUser, history, pending);
+            return;
+        }
+        
         List<Message> messages = messageDAO.getConversation(
             currentUser.getUserId(), selectedUser.getUserId());
+        Set<String> storedIds = new HashSet<>();
+        for (Message msg : messages) {
+            if (msg.getClientMessageId() != null) {
+                storedIds.add(msg.getClientMessageId());
+            }
+        }
+        for (Message msg : pending) {
+            if (!storedIds.contains(msg.getClientMessageId())) {
+                messages.add(msg);
+            }
+        }
         
+        // Receipts and edits for this conversation; later changes arrive incrementally
+        eventService.loadConversation(currentUser.getUserId(), selectedUser.getUserId());
+        List<HistoryPrefetcher.Entry> loaded = new ArrayList<>();
         for (Message msg : messages) {
-            try {
-                String decrypted = SecurityUtil.decrypt(msg.getEncryptedMessage(), secretKey);
-                String displayText = String.format("%s: %s", 
-                    msg.getSenderId() == currentUser.getUserId() ? "You" : selectedUsername, 
-                    decrypted);
-                chatModel.addElement(displayText);
-            } catch (Exception e) {
-                System.err.println("Error decrypting message: " + e.getMessage());
-                chatModel.addElement("[Error decrypting message]");
+            String text = decryptOrNull(msg.getEncryptedMessage());
+            addChatRow(msg, text);
+            loaded.add(new HistoryPrefetcher.Entry(msg, text));
+        }
+        historyPrefetcher.put(selectedUser.getUserId(), loaded);
+        eventService.markRead(messages);
+    }
+    
+    // Renders a conversation from memory, then refreshes it from the database in the background if it is stale
+    private void showCachedHistory(User partner, List<HistoryPrefetcher.Entry> history, List<Message> pending) {
+        renderHistory(history, pending);
+        eventService.loadConversation(currentUser.getUserId(), partner.getUserId());
+        
+        historyPrefetcher.refresh(partner.getUserId(), refreshed -> SwingUtilities.invokeLater(() -> {
+            if (chatPartner != null && chatPartner.getUserId() == partner.getUserId()) {
+                chatModel.clear();
+                chatRows.clear();
+                rowIndexById.clear();
+                renderHistory(refreshed, outbox != null
+                    ? outbox.getPending(currentUser.getUserId(), partner.getUserId())
+                    : new ArrayList<>());
+            }
+        }));
+    }
+    
+    private void renderHistory(List<HistoryPrefetcher.Entry> history, List<Message> pending) {
+        List<Message> messages = new ArrayList<>();
+        for (HistoryPrefetcher.Entry entry : history) {
+            addChatRow(entry.getMessage(), entry.getText());
+            messages.add(entry.getMessage());
+        }
+        for (Message msg : pending) {
+            if (!rowIndexById.containsKey(msg.getClientMessageId())) {
+                addChatRow(msg, decryptOrNull(msg.getEncryptedMessage()));
             }
         }
+        eventService.markRead(messages);
+    }
+    
+    private String decryptOrNull(String encrypted) {
+        try {
+            return SecurityUtil.decrypt(encrypted, secretKey);
+        } catch (Exception e) {
+            System.err.println("Error decrypting message: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private void addChatRow(Message message, String text) {
+        ChatRow row = new ChatRow(message, text);
+        if (message.getClientMessageId() != null) {
+            rowIndexById.put(message.getClientMessageId(), chatRows.size());
+        }
+        chatRows.add(row);
+        chatModel.addElement(formatChatRow(row));
+    }
+    
+    private void refreshChatRow(String clientMessageId) {
+        Integer index = rowIndexById.get(clientMessageId);
+        if (index != null) {
+            chatModel.set(index, formatChatRow(chatRows.get(index)));
+        }
+    }
+    
+    private String formatChatRow(ChatRow row) {
+        if (row.text == null) {
+            return "[Error decrypting message]";
+        }
+        boolean mine = row.message.getSenderId() == currentUser.getUserId();
+        String author = mine ? "You" : chatPartner.getUsername();
+        MessageState state = eventService.getState(row.message.getClientMessageId());
+        if (state == null) {
+            return author + ": " + row.text;
+        }
+        if (state.isDeleted()) {
+            return author + ": [message deleted]";
+        }
+        String text = row.text;
+        if (state.isEdited()) {
+            String edited = decryptOrNull(state.getEncryptedText());
+            text = (edited != null ? edited : "[Error decrypting message]") + " (edited)";
+        }
+        if (mine && state.getStatus() == MessageEvent.Type.READ) {
+            text += "  \u2713\u2713";
+        } else if (mine && state.getStatus() == MessageEvent.Type.DELIVERED) {
+            text += "  \u2713";
+        }
+        return author + ": " + text;
+    }
+    
+    private void showMessageMenu(MouseEvent e) {
+        if (!e.isPopupTrigger()) return;
+        int index = chatList.locationToIndex(e.getPoint());
+        if (index < 0 || index >= chatRows.size()) return;
+        
+        ChatRow row = chatRows.get(index);
+        String id = row.message.getClientMessageId();
+        MessageState state = eventService.getState(id);
+        if (id == null || row.message.getSenderId() != currentUser.getUserId()
+                || (state != null && state.isDeleted())) {
+            return;
+        }
+        chatList.setSelectedIndex(index);
+        
+        JPopupMenu menu = new JPopupMenu();
+        JMenuItem editItem = new JMenuItem("Edit");
+        editItem.addActionListener(ev -> editMessage(row));
+        JMenuItem deleteItem = new JMenuItem("Delete");
+        deleteItem.addActionListener(ev -> deleteMessage(row));
+        menu.add(editItem);
+        menu.add(deleteItem);
+        menu.show(chatList, e.getX(), e.getY());
+    }
+    
+    private void editMessage(ChatRow row) {
+        String newText = JOptionPane.showInputDialog(this, "Edit message", row.text);
+        if (newText == null || newText.trim().isEmpty()) return;
+        
+        try {
+            String encrypted = SecurityUtil.encrypt(newText.trim(), secretKey);
+            eventService.edit(row.message.getClientMessageId(), row.message.getReceiverId(), encrypted);
+        } catch (Exception e) {
+            JOptionPane.showMessageDialog(this, "Error encrypting message: " + e.getMessage(), 
+                "Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+    
+    private void deleteMessage(ChatRow row) {
+        int choice = JOptionPane.showConfirmDialog(this, "Delete this message for everyone?", 
+            "Delete Message", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            eventService.delete(row.message.getClientMessageId(), row.message.getReceiverId());
+        }
     }
     
     private void sendMessage() {
@@ -149,7 +470,7 @@ public class ChatMainFrame extends JFrame {
             return;
         }
         
-        User receiver = userDAO.getUserByUsername(selectedUsername);
+        User receiver = findUser(selectedUsername);
         if (receiver == null) {
             JOptionPane.showMessageDialog(this, "User not found", 
                 "Error", JOptionPane.ERROR_MESSAGE);
@@ -169,9 +490,23 @@ public class ChatMainFrame extends JFrame {
                 encrypted, 
                 "iv_placeholder" // In real app, store actual IV
             );
+            message.setClientMessageId(UUID.randomUUID().toString());
+            // Local time until the database assigns sent_at; orders the message within the history cache
+            message.setSentAt(new Timestamp(System.currentTimeMillis()));
             
-            if (messageDAO.saveMessage(message)) {
-                chatModel.addElement("You: " + messageText);
+            // The outbox journals the message and delivers it in the background
+            boolean sent;
+            if (outbox != null) {
+                sent = outbox.send(message);
+            } else {
+                sent = messageDAO.saveMessage(message);
+                if (sent) {
+                    eventService.recordSent(message);
+                }
+            }
+            if (sent) {
+                historyPrefetcher.add(message, messageText);
+                addChatRow(message, messageText);
                 messageArea.setText("");
             } else {
                 JOptionPane.showMessageDialog(this, "Failed to send message", 
@@ -183,6 +518,42 @@ public class ChatMainFrame extends JFrame {
         }
     }
     
+    // Shows which contacts are online and whether they are typing to us
+    private class UserCellRenderer extends DefaultListCellRenderer {
+        @Override
+        public Component getListCellRendererComponent(JList<?> list, Object value, 
+                int index, boolean isSelected, boolean cellHasFocus) {
+            JLabel label = (JLabel) super.getListCellRendererComponent(
+                list, value, index, isSelected, cellHasFocus);
+            
+            String username = (String) value;
+            Integer userId = userIdsByName.get(username);
+            Integer typingTo = userId == null ? null : onlineContacts.get(userId);
+            if (typingTo == null) {
+                label.setText("\u25CB " + username);
+            } else if (typingTo == currentUser.getUserId()) {
+                label.setText("\u25CF " + username + " (typing...)");
+            } else {
+                label.setText("\u25CF " + username);
+            }
+            if (typingTo != null && !isSelected) {
+                label.setForeground(new Color(0, 128, 0));
+            }
+            
+            return label;
+        }
+    }
+    
+    private static class ChatRow {
+        final Message message;
+        final String text; // decrypted original text, null if it could not be decrypted
+        
+        ChatRow(Message message, String text) {
+            this.message = message;
+            this.text = text;
+        }
+    }
+    
     // Custom cell renderer for chat messages
     private class ChatCellRenderer extends DefaultListCellRenderer {
         @Override
@@ -203,4 +574,4 @@ public class ChatMainFrame extends JFrame {
             return label;
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -2,11 +2,14 @@ package com.securechat.gui;
 
 import com.securechat.dao.UserDAO;
 import com.securechat.model.User;
+import com.securechat.util.LoginRateLimiter;
 import com.securechat.util.SecurityUtil;
+import com.securechat.util.StartupTimeline;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.net.InetAddress;
 
 
 public class LoginForm extends JFrame{
@@ -14,6 +17,7 @@ public class LoginForm extends JFrame{
     private JPasswordField passwordField;
     private JButton loginButton, registerButton;
     private UserDAO userDAO;
+    private String source;
     
     public LoginForm() {
         userDAO = new UserDAO();
@@ -89,16 +93,47 @@ public class LoginForm extends JFrame{
             return;
         }
         
+        StartupTimeline.mark("login submitted");
+        
+        // Throttle before touching the database or hashing anything
+        LoginRateLimiter limiter = LoginRateLimiter.getInstance();
+        String userKey = "user:" + username;
+        String sourceKey = "source:" + getSource();
+        long waitMillis = Math.max(limiter.tryAcquire(userKey), limiter.tryAcquire(sourceKey));
+        if (waitMillis > 0) {
+            JOptionPane.showMessageDialog(this, "Too many login attempts. Try again in "
+                + ((waitMillis + 999) / 1000) + " seconds", 
+                "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        
         User user = userDAO.authenticateUser(username, password);
         if (user != null) {
+            limiter.recordSuccess(userKey);
+            limiter.recordSuccess(sourceKey);
             dispose(); // Close login window
             new ChatMainFrame(user).setVisible(true);
+            StartupTimeline.mark("chat window visible");
+            StartupTimeline.print("login complete");
         } else {
+            limiter.recordFailure(userKey);
+            limiter.recordFailure(sourceKey);
             JOptionPane.showMessageDialog(this, "Invalid username or password", 
                 "Error", JOptionPane.ERROR_MESSAGE);
         }
     }
     
+    private String getSource() {
+        if (source == null) {
+            try {
+                source = InetAddress.getLocalHost().getHostAddress();
+            } catch (Exception e) {
+                source = "local";
+            }
+        }
+        return source;
+    }
+    
     private void showRegistrationForm() {
         new RegistrationForm(this).setVisible(true);
     }
@@ -10,6 +10,7 @@ public class Message {
     private String encryptedMessage;
     private String iv;
     private Timestamp sentAt;
+    private String clientMessageId;
 
     public Message() {}
 
@@ -78,4 +79,12 @@ public class Message {
         this.sentAt = sentAt;
     }
 
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
 }
@@ -0,0 +1,114 @@
+package com.securechat.model;
+
+import java.sql.Timestamp;
+
+public class MessageEvent {
+    // Declared in status order: SENT < DELIVERED < READ
+    public enum Type {
+        SENT, DELIVERED, READ, EDITED, DELETED;
+
+        public static Type fromCode(int code) {
+            return values()[code];
+        }
+
+        public int getCode() {
+            return ordinal();
+        }
+    }
+
+    private long eventId;
+    private String clientMessageId;
+    private int senderId;
+    private int receiverId;
+    private int actorId;
+    private Type type;
+    private String encryptedText;
+    private Timestamp createdAt;
+    // The stored message of a polled SENT event, when the same read could see it
+    private Message message;
+
+    public MessageEvent() {}
+
+    public MessageEvent(String clientMessageId, int senderId, int receiverId,
+                        int actorId, Type type, String encryptedText) {
+        this.clientMessageId = clientMessageId;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+        this.actorId = actorId;
+        this.type = type;
+        this.encryptedText = encryptedText;
+    }
+
+    public long getEventId() {
+        return eventId;
+    }
+
+    public void setEventId(long eventId) {
+        this.eventId = eventId;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(int senderId) {
+        this.senderId = senderId;
+    }
+
+    public int getReceiverId() {
+        return receiverId;
+    }
+
+    public void setReceiverId(int receiverId) {
+        this.receiverId = receiverId;
+    }
+
+    public int getActorId() {
+        return actorId;
+    }
+
+    public void setActorId(int actorId) {
+        this.actorId = actorId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public String getEncryptedText() {
+        return encryptedText;
+    }
+
+    public void setEncryptedText(String encryptedText) {
+        this.encryptedText = encryptedText;
+    }
+
+    public Timestamp getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Timestamp createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public void setMessage(Message message) {
+        this.message = message;
+    }
+
+}
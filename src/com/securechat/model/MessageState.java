@@ -0,0 +1,87 @@
+package com.securechat.model;
+
+// Current state of one message, folded from its events
+public class MessageState {
+    private String clientMessageId;
+    private int senderId;
+    private int receiverId;
+    private MessageEvent.Type status = MessageEvent.Type.SENT;
+    private boolean edited;
+    private String encryptedText;
+    private boolean deleted;
+
+    public MessageState() {}
+
+    public MessageState(String clientMessageId, int senderId, int receiverId) {
+        this.clientMessageId = clientMessageId;
+        this.senderId = senderId;
+        this.receiverId = receiverId;
+    }
+
+    public MessageState copy() {
+        MessageState copy = new MessageState(clientMessageId, senderId, receiverId);
+        copy.status = status;
+        copy.edited = edited;
+        copy.encryptedText = encryptedText;
+        copy.deleted = deleted;
+        return copy;
+    }
+
+    public String getClientMessageId() {
+        return clientMessageId;
+    }
+
+    public void setClientMessageId(String clientMessageId) {
+        this.clientMessageId = clientMessageId;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public void setSenderId(int senderId) {
+        this.senderId = senderId;
+    }
+
+    public int getReceiverId() {
+        return receiverId;
+    }
+
+    public void setReceiverId(int receiverId) {
+        this.receiverId = receiverId;
+    }
+
+    public MessageEvent.Type getStatus() {
+        return status;
+    }
+
+    public void setStatus(MessageEvent.Type status) {
+        this.status = status;
+    }
+
+    public boolean isEdited() {
+        return edited;
+    }
+
+    public void setEdited(boolean edited) {
+        this.edited = edited;
+    }
+
+    // Latest edited text, still encrypted; null when never edited
+    public String getEncryptedText() {
+        return encryptedText;
+    }
+
+    public void setEncryptedText(String encryptedText) {
+        this.encryptedText = encryptedText;
+    }
+
+    public boolean isDeleted() {
+        return deleted;
+    }
+
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+
+}
@@ -0,0 +1,42 @@
+package com.securechat.model;
+
+import java.sql.Timestamp;
+
+public class Presence {
+    private int userId;
+    private int typingTo;
+    private Timestamp lastSeen;
+
+    public Presence() {}
+
+    public Presence(int userId, int typingTo, Timestamp lastSeen) {
+        this.userId = userId;
+        this.typingTo = typingTo;
+        this.lastSeen = lastSeen;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public void setUserId(int userId) {
+        this.userId = userId;
+    }
+
+    public int getTypingTo() {
+        return typingTo;
+    }
+
+    public void setTypingTo(int typingTo) {
+        this.typingTo = typingTo;
+    }
+
+    public Timestamp getLastSeen() {
+        return lastSeen;
+    }
+
+    public void setLastSeen(Timestamp lastSeen) {
+        this.lastSeen = lastSeen;
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.securechat.service;
+
+import com.securechat.dao.MessageDAO;
+import com.securechat.model.Message;
+import com.securechat.util.AppConfig;
+import com.securechat.util.SecurityUtil;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import javax.crypto.SecretKey;
+
+/*
+ * Decrypted conversation history held in memory so switching contacts does
+ * not wait on the database. After login, the latest page of the most recent
+ * conversations is fetched in one batched query, decrypted and folded with
+ * its receipts on a background thread. Conversations opened later are added
+ * when they are first loaded. The owner keeps the cache current by passing
+ * every sent and received message to add(), and calls refresh() after a
+ * cache hit. refresh() re-reads the latest page at most once per
+ * REVALIDATE_MILLIS to pick up anything the event stream missed, and fills
+ * in the rest of a prefetched conversation, on one shared background thread.
+ *
+ * The cache holds decrypted text, so it is bounded: the least recently
+ * opened conversations are dropped, and a conversation longer than
+ * MAX_CACHED_MESSAGES is not cached at all. Such conversations are read from
+ * the database each time they are opened, as they were before the cache.
+ */
+public class HistoryPrefetcher {
+    private static final int MAX_CACHED_MESSAGES = 2000;
+    private static final long REVALIDATE_MILLIS = 30_000;
+
+    private final MessageDAO messageDAO;
+    private final MessageEventService eventService;
+    private final SecretKey key;
+    private final int conversations;
+    private final int pageSize;
+    private volatile int cacheConversations;
+    private final Map<Integer, History> histories;
+    // Messages seen while the prefetch query is running; non-null only during the prefetch
+    private Map<Integer, List<Entry>> arrivedDuringLoad;
+    private volatile int localUserId;
+    private final ExecutorService refresher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "history-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public HistoryPrefetcher(MessageDAO messageDAO, MessageEventService eventService, SecretKey key) {
+        AppConfig config = AppConfig.get();
+        this.messageDAO = messageDAO;
+        this.eventService = eventService;
+        this.key = key;
+        this.conversations = config.getHistoryPrefetchConversations();
+        this.pageSize = config.getHistoryPageSize();
+        this.cacheConversations = Math.max(conversations, config.getHistoryCacheConversations());
+        this.histories = new LinkedHashMap<Integer, History>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, History> eldest) {
+                return size() > cacheConversations;
+            }
+        };
+        config.addListener(() -> resize(Math.max(conversations, config.getHistoryCacheConversations())));
+    }
+
+    // Applies a reloaded capacity; a smaller cache drops the least recently opened conversations now
+    private synchronized void resize(int capacity) {
+        cacheConversations = capacity;
+        Iterator<Integer> eldest = histories.keySet().iterator();
+        while (histories.size() > capacity && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void start(int userId) {
+        localUserId = userId;
+        if (conversations == 0 || arrivedDuringLoad != null) {
+            return;
+        }
+        arrivedDuringLoad = new HashMap<>();
+        Thread prefetch = new Thread(this::prefetch, "history-prefetch");
+        prefetch.setDaemon(true);
+        prefetch.start();
+    }
+
+    // Copy of the cached history with a partner, oldest first, or null if it is not cached
+    public synchronized List<Entry> getHistory(int partnerId) {
+        History history = histories.get(partnerId);
+        return history == null ? null : new ArrayList<>(history.entries);
+    }
+
+    /*
+     * Brings a cached conversation up to date in the background and passes
+     * the whole conversation, oldest first, to the listener if it changed.
+     * Does nothing if the conversation is complete and was checked within
+     * REVALIDATE_MILLIS. The listener runs on the refresh thread.
+     */
+    public void refresh(int partnerId, Consumer<List<Entry>> listener) {
+        if (!needsRefresh(partnerId)) {
+            return;
+        }
+        refresher.execute(() -> {
+            // An earlier queued refresh of the same conversation may have done the work
+            if (!needsRefresh(partnerId)) {
+                return;
+            }
+            List<Entry> revalidated = revalidate(partnerId);
+            List<Entry> full = loadOlder(partnerId);
+            List<Entry> refreshed = full != null ? full : revalidated;
+            if (refreshed != null) {
+                listener.accept(refreshed);
+            }
+        });
+    }
+
+    private synchronized boolean needsRefresh(int partnerId) {
+        History history = histories.get(partnerId);
+        return history != null
+            && (!history.complete || System.currentTimeMillis() - history.validatedAt >= REVALIDATE_MILLIS);
+    }
+
+    // Caches a full conversation loaded by the caller, unless it is too long to cache
+    public synchronized void put(int partnerId, List<Entry> entries) {
+        History history = new History(true);
+        for (Entry entry : entries) {
+            history.add(entry);
+        }
+        histories.put(partnerId, history);
+        evictIfOversized(partnerId, history);
+    }
+
+    // Appends a sent or received message to its conversation; duplicates are ignored
+    public synchronized void add(Message message, String text) {
+        int partnerId = partnerOf(message);
+        History history = histories.get(partnerId);
+        if (history != null) {
+            history.add(new Entry(message, text));
+            evictIfOversized(partnerId, history);
+        } else if (arrivedDuringLoad != null) {
+            arrivedDuringLoad.computeIfAbsent(partnerId, k -> new ArrayList<>()).add(new Entry(message, text));
+        }
+    }
+
+    /*
+     * Fetches the messages before the cached page and returns the whole
+     * conversation, oldest first, or null if there was nothing to load.
+     * Afterwards the conversation is complete, or no longer cached if it is
+     * longer than MAX_CACHED_MESSAGES. Blocks on the database.
+     */
+    private List<Entry> loadOlder(int partnerId) {
+        Set<String> cached;
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null || history.complete) {
+                return null;
+            }
+        }
+        List<Message> messages = messageDAO.getConversation(localUserId, partnerId);
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null || history.complete) {
+                return null;
+            }
+            cached = new HashSet<>(history.keys);
+        }
+        List<Entry> older = new ArrayList<>();
+        for (Message message : messages) {
+            if (!cached.contains(keyOf(message))) {
+                older.add(new Entry(message, decryptOrNull(message.getEncryptedMessage())));
+            }
+        }
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null || history.complete) {
+                return null;
+            }
+            List<Entry> missing = new ArrayList<>();
+            for (Entry entry : older) {
+                if (history.keys.add(keyOf(entry.message))) {
+                    missing.add(entry);
+                }
+            }
+            history.entries.addAll(0, missing);
+            history.complete = true;
+            List<Entry> all = new ArrayList<>(history.entries);
+            evictIfOversized(partnerId, history);
+            return all;
+        }
+    }
+
+    /*
+     * Re-reads the latest page of a cached conversation and merges in any
+     * message the cache is missing. Returns the whole cached conversation,
+     * oldest first, if something was added, otherwise null. Blocks on the
+     * database.
+     */
+    private List<Entry> revalidate(int partnerId) {
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null || System.currentTimeMillis() - history.validatedAt < REVALIDATE_MILLIS) {
+                return null;
+            }
+        }
+        long checkedAt = System.currentTimeMillis();
+        List<Message> page = messageDAO.getConversationPage(localUserId, partnerId, pageSize);
+        if (page == null) {
+            return null; // retried on the next cache hit
+        }
+        Set<String> cached;
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null) {
+                return null;
+            }
+            history.validatedAt = checkedAt;
+            cached = new HashSet<>(history.keys);
+        }
+        List<Entry> missing = new ArrayList<>();
+        for (Message message : page) {
+            if (!cached.contains(keyOf(message))) {
+                missing.add(new Entry(message, decryptOrNull(message.getEncryptedMessage())));
+            }
+        }
+        if (missing.isEmpty()) {
+            return null;
+        }
+        synchronized (this) {
+            History history = histories.get(partnerId);
+            if (history == null) {
+                return null;
+            }
+            boolean added = false;
+            for (Entry entry : missing) {
+                added |= history.add(entry);
+            }
+            if (!added) {
+                return null;
+            }
+            // Unsent outbox messages have no timestamp yet and stay at the end
+            history.entries.sort(Comparator.comparing((Entry entry) -> entry.message.getSentAt(),
+                Comparator.nullsLast(Comparator.<Timestamp>naturalOrder())));
+            List<Entry> all = new ArrayList<>(history.entries);
+            evictIfOversized(partnerId, history);
+            return all;
+        }
+    }
+
+    private void prefetch() {
+        int userId = localUserId;
+        Map<Integer, List<Message>> pages = messageDAO.getRecentConversationPages(userId, conversations, pageSize);
+        eventService.loadConversations(userId, pages.keySet());
+        Map<Integer, History> loaded = new HashMap<>();
+        for (Map.Entry<Integer, List<Message>> page : pages.entrySet()) {
+            History history = new History(page.getValue().size() < pageSize);
+            for (Message message : page.getValue()) {
+                history.add(new Entry(message, decryptOrNull(message.getEncryptedMessage())));
+            }
+            loaded.put(page.getKey(), history);
+        }
+        synchronized (this) {
+            for (Map.Entry<Integer, History> history : loaded.entrySet()) {
+                // A conversation opened meanwhile already holds its full history
+                histories.putIfAbsent(history.getKey(), history.getValue());
+            }
+            for (Map.Entry<Integer, List<Entry>> arrived : arrivedDuringLoad.entrySet()) {
+                History history = histories.get(arrived.getKey());
+                if (history != null) {
+                    for (Entry entry : arrived.getValue()) {
+                        history.add(entry);
+                    }
+                    evictIfOversized(arrived.getKey(), history);
+                }
+            }
+            arrivedDuringLoad = null;
+        }
+    }
+
+    // Caller holds the lock
+    private void evictIfOversized(int partnerId, History history) {
+        if (history.entries.size() > MAX_CACHED_MESSAGES) {
+            histories.remove(partnerId);
+        }
+    }
+
+    private int partnerOf(Message message) {
+        return message.getSenderId() == localUserId ? message.getReceiverId() : message.getSenderId();
+    }
+
+    private static String keyOf(Message message) {
+        return message.getClientMessageId() != null ? "c:" + message.getClientMessageId() : "m:" + message.getMessageId();
+    }
+
+    private String decryptOrNull(String encrypted) {
+        try {
+            return SecurityUtil.decrypt(encrypted, key);
+        } catch (Exception e) {
+            System.err.println("Error decrypting message: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public static class Entry {
+        private final Message message;
+        private final String text; // decrypted text, null if it could not be decrypted
+
+        public Entry(Message message, String text) {
+            this.message = message;
+            this.text = text;
+        }
+
+        public Message getMessage() {
+            return message;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private static class History {
+        final List<Entry> entries = new ArrayList<>();
+        final Set<String> keys = new HashSet<>();
+        boolean complete;
+        // When the cached copy was last read from or checked against the database
+        long validatedAt = System.currentTimeMillis();
+
+        History(boolean complete) {
+            this.complete = complete;
+        }
+
+        boolean add(Entry entry) {
+            if (keys.add(keyOf(entry.message))) {
+                entries.add(entry);
+                return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.securechat.service;
+
+import com.securechat.model.Message;
+import com.securechat.model.MessageState;
+
+public interface MessageEventListener {
+    // A new message addressed to the local user has been stored
+    void messageReceived(Message message);
+
+    // Status, edit or delete state of a message changed
+    void messageStateChanged(MessageState state);
+}
@@ -0,0 +1,299 @@
+package com.securechat.service;
+
+import com.securechat.dao.MessageDAO;
+import com.securechat.dao.MessageEventDAO;
+import com.securechat.model.Message;
+import com.securechat.model.MessageEvent;
+import com.securechat.model.MessageState;
+import com.securechat.util.AppConfig;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Keeps the current state of each message (receipts, edits, deletes) as a
+ * view folded from the message_events log. Local actions are applied to the
+ * view at once and queued; the queue is written as one multi-row insert per
+ * batch window. In the same window, new events for the local user are polled
+ * and folded in incrementally, so the transcript never has to be reloaded.
+ *
+ * Event ids are allocated before commit, so a lower id can become visible
+ * after a higher one has been polled. Each poll therefore re-reads every id
+ * above the highest one seen REPOLL_WINDOW_MILLIS ago and skips events it
+ * has already handled.
+ */
+public class MessageEventService {
+    private static final long REPOLL_WINDOW_MILLIS = 10_000;
+    // How long an incoming SENT event may wait for its message row to become readable
+    private static final long UNRESOLVED_MAX_MILLIS = 60_000;
+
+    private final MessageEventDAO eventDAO;
+    private final MessageDAO messageDAO;
+    private volatile long batchMillis;
+    private final Map<String, MessageState> states = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<MessageEvent> outgoing = new ConcurrentLinkedQueue<>();
+    // Events from a failed save; written ahead of anything emitted since. Guarded by flush()
+    private final List<MessageEvent> unsaved = new ArrayList<>();
+    private final List<MessageEventListener> listeners = new CopyOnWriteArrayList<>();
+    private final Set<String> loadedConversations = ConcurrentHashMap.newKeySet();
+    private ScheduledExecutorService worker;
+    private volatile int localUserId;
+    // Poll state; only touched by the worker thread
+    private long floorEventId = -1;
+    private long highestEventId;
+    private final ArrayDeque<long[]> pollHistory = new ArrayDeque<>(); // {poll time, highest id seen}
+    private final Set<Long> seenEventIds = new HashSet<>();
+    private final Map<String, Long> unresolved = new HashMap<>(); // client id -> first seen
+
+    public MessageEventService(MessageEventDAO eventDAO, MessageDAO messageDAO) {
+        this.eventDAO = eventDAO;
+        this.messageDAO = messageDAO;
+        AppConfig config = AppConfig.get();
+        this.batchMillis = config.getEventsBatchMillis();
+        config.addListener(() -> batchMillis = config.getEventsBatchMillis());
+    }
+
+    public synchronized void start(int userId) {
+        if (worker != null) {
+            return;
+        }
+        localUserId = userId;
+        worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "message-events");
+            t.setDaemon(true);
+            return t;
+        });
+        ScheduledExecutorService w = worker;
+        w.execute(() -> flushRound(w));
+    }
+
+    // Reschedules itself so a reloaded batch window applies from the next round
+    private void flushRound(ScheduledExecutorService w) {
+        flushAndPoll();
+        try {
+            w.schedule(() -> flushRound(w), batchMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+        flush();
+    }
+
+    public void addListener(MessageEventListener listener) {
+        listeners.add(listener);
+    }
+
+    public MessageState getState(String clientMessageId) {
+        return clientMessageId == null ? null : states.get(clientMessageId);
+    }
+
+    // Folds the full event history of a conversation the first time it is opened successfully
+    public void loadConversation(int user1Id, int user2Id) {
+        String key = Math.min(user1Id, user2Id) + ":" + Math.max(user1Id, user2Id);
+        if (loadedConversations.contains(key)) {
+            return;
+        }
+        List<MessageEvent> events = eventDAO.getConversationEvents(user1Id, user2Id);
+        if (events == null) {
+            return; // retried the next time the conversation is opened
+        }
+        for (MessageEvent event : events) {
+            fold(event, false);
+        }
+        loadedConversations.add(key);
+    }
+
+    // Batched form of loadConversation for the conversations the history prefetcher warms
+    public void loadConversations(int userId, Collection<Integer> partnerIds) {
+        List<Integer> unloaded = new ArrayList<>();
+        for (int partnerId : partnerIds) {
+            if (!loadedConversations.contains(Math.min(userId, partnerId) + ":" + Math.max(userId, partnerId))) {
+                unloaded.add(partnerId);
+            }
+        }
+        List<MessageEvent> events = eventDAO.getConversationEvents(userId, unloaded);
+        if (events == null) {
+            return; // each conversation is loaded on its own when it is opened
+        }
+        for (MessageEvent event : events) {
+            fold(event, false);
+        }
+        for (int partnerId : unloaded) {
+            loadedConversations.add(Math.min(userId, partnerId) + ":" + Math.max(userId, partnerId));
+        }
+    }
+
+    // Called once the message row is stored, so receivers can fetch it when they see the event
+    public void recordSent(Message message) {
+        emit(message.getClientMessageId(), message.getSenderId(), message.getReceiverId(),
+            MessageEvent.Type.SENT, null);
+    }
+
+    // Marks incoming messages as read, skipping any that already are
+    public void markRead(Collection<Message> messages) {
+        for (Message message : messages) {
+            // Rows stored before client ids existed cannot carry events
+            if (message.getClientMessageId() == null || message.getReceiverId() != localUserId) {
+                continue;
+            }
+            MessageState state = states.get(message.getClientMessageId());
+            if (state == null || state.getStatus().compareTo(MessageEvent.Type.READ) < 0) {
+                emit(message.getClientMessageId(), message.getSenderId(), message.getReceiverId(),
+                    MessageEvent.Type.READ, null);
+            }
+        }
+    }
+
+    public void edit(String clientMessageId, int receiverId, String encryptedText) {
+        emit(clientMessageId, localUserId, receiverId, MessageEvent.Type.EDITED, encryptedText);
+    }
+
+    public void delete(String clientMessageId, int receiverId) {
+        emit(clientMessageId, localUserId, receiverId, MessageEvent.Type.DELETED, null);
+    }
+
+    private void emit(String clientMessageId, int senderId, int receiverId, MessageEvent.Type type, String text) {
+        MessageEvent event = new MessageEvent(clientMessageId, senderId, receiverId, localUserId, type, text);
+        fold(event, false);
+        outgoing.add(event);
+    }
+
+    /*
+     * Applies one event to the view. Only the receiver can deliver or read and
+     * only the sender can edit or delete. Status never moves backwards, so
+     * replays and the echo of our own events are harmless. The one exception
+     * is an echoed edit, which could briefly undo a newer local edit; those
+     * are skipped when folding polled events.
+     */
+    private synchronized void fold(MessageEvent event, boolean polled) {
+        String id = event.getClientMessageId();
+        MessageState current = states.get(id);
+        MessageState next = current != null ? current.copy()
+            : new MessageState(id, event.getSenderId(), event.getReceiverId());
+        boolean changed = current == null;
+        switch (event.getType()) {
+            case DELIVERED:
+            case READ:
+                if (event.getActorId() == next.getReceiverId() && next.getStatus().compareTo(event.getType()) < 0) {
+                    next.setStatus(event.getType());
+                    changed = true;
+                }
+                break;
+            case EDITED:
+                if (event.getActorId() == next.getSenderId() && !next.isDeleted()
+                        && !(polled && event.getActorId() == localUserId)) {
+                    next.setEdited(true);
+                    next.setEncryptedText(event.getEncryptedText());
+                    changed = true;
+                }
+                break;
+            case DELETED:
+                if (event.getActorId() == next.getSenderId() && !next.isDeleted()) {
+                    next.setDeleted(true);
+                    changed = true;
+                }
+                break;
+            default:
+                break;
+        }
+        if (changed) {
+            states.put(id, next);
+            for (MessageEventListener listener : listeners) {
+                listener.messageStateChanged(next);
+            }
+        }
+    }
+
+    // Event ids follow insert order, and edits fold in id order, so a failed batch must go first next time
+    private synchronized void flush() {
+        List<MessageEvent> batch = new ArrayList<>(unsaved);
+        MessageEvent event;
+        while ((event = outgoing.poll()) != null) {
+            batch.add(event);
+        }
+        unsaved.clear();
+        if (!batch.isEmpty() && !eventDAO.saveEvents(batch)) {
+            unsaved.addAll(batch);
+        }
+    }
+
+    // Moves the re-read floor up to the highest id seen at least one window ago
+    private void advanceFloor(long now) {
+        pollHistory.addLast(new long[] {now, highestEventId});
+        while (!pollHistory.isEmpty() && now - pollHistory.peekFirst()[0] >= REPOLL_WINDOW_MILLIS) {
+            floorEventId = Math.max(floorEventId, pollHistory.pollFirst()[1]);
+        }
+        seenEventIds.removeIf(id -> id <= floorEventId);
+    }
+
+    private void flushAndPoll() {
+        try {
+            flush();
+            long now = System.currentTimeMillis();
+            if (floorEventId < 0) {
+                floorEventId = eventDAO.getLatestEventId();
+                highestEventId = floorEventId;
+                return;
+            }
+
+            List<Message> arrived = new ArrayList<>();
+            for (MessageEvent event : eventDAO.getEventsAfter(localUserId, floorEventId)) {
+                if (!seenEventIds.add(event.getEventId())) {
+                    continue;
+                }
+                highestEventId = Math.max(highestEventId, event.getEventId());
+                fold(event, true);
+                if (event.getType() == MessageEvent.Type.SENT && event.getReceiverId() == localUserId
+                        && event.getSenderId() != localUserId) {
+                    if (event.getMessage() != null) {
+                        arrived.add(event.getMessage());
+                    } else {
+                        unresolved.putIfAbsent(event.getClientMessageId(), now);
+                    }
+                }
+            }
+            if (!unresolved.isEmpty()) {
+                for (Message message : messageDAO.getMessagesByClientIds(unresolved.keySet())) {
+                    if (unresolved.remove(message.getClientMessageId()) != null) {
+                        arrived.add(message);
+                    }
+                }
+                unresolved.entrySet().removeIf(entry -> {
+                    boolean expired = now - entry.getValue() > UNRESOLVED_MAX_MILLIS;
+                    if (expired) {
+                        System.err.println("Giving up on message " + entry.getKey() + ": not found");
+                    }
+                    return expired;
+                });
+            }
+            for (Message message : arrived) {
+                emit(message.getClientMessageId(), message.getSenderId(), message.getReceiverId(),
+                    MessageEvent.Type.DELIVERED, null);
+                for (MessageEventListener listener : listeners) {
+                    listener.messageReceived(message);
+                }
+            }
+            advanceFloor(now);
+        } catch (RuntimeException e) {
+            System.err.println("Error processing message events: " + e.getMessage());
+        }
+    }
+}
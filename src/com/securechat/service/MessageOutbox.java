@@ -0,0 +1,420 @@
+package com.securechat.service;
+
+import com.securechat.dao.MessageDAO;
+import com.securechat.model.Message;
+import com.securechat.util.AppConfig;
+import com.securechat.util.SecurityUtil;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import javax.crypto.SecretKey;
+
+/*
+ * Write-ahead outbox for sent messages. send() appends the message to a
+ * memory-mapped journal and returns without touching the database. A flusher
+ * forces the journal to disk once per sync window, so concurrent sends share
+ * one fsync. A single drainer replays records to the database in journal
+ * order, retrying with backoff while the database is unavailable. Each
+ * message carries a client id, so replays after a crash or a lost
+ * acknowledgement do not create duplicate rows. A message the database
+ * rejects outright is moved to a .rejected file so it cannot block the rest.
+ * If the oldest message keeps failing for STALL_NOTICE_MILLIS, the stalled
+ * listener is told once, while retries go on.
+ *
+ * Only ciphertext is journaled; the plaintext column is restored by
+ * decrypting just before the insert.
+ *
+ * Journal layout: an 8-byte magic/version word, the 8-byte offset of the
+ * first undrained record, then records of [int length][long crc32][payload].
+ * A zero length marks the end. Records with a bad checksum are treated as a
+ * torn write and also end the scan.
+ */
+public class MessageOutbox {
+    private static final long MAGIC = 0x5343_4F55_5442_0001L; // "SCOUTB" v1
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_HEADER_SIZE = 12;
+    private static final long MIN_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+    private static final long STALL_NOTICE_MILLIS = 30_000;
+
+    private final MessageDAO messageDAO;
+    private final SecretKey key;
+    private final Path rejectedFile;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer journal;
+    private volatile long syncMillis;
+    private int drainOffset;
+    private int writeOffset;
+    private int syncedOffset;
+    // Bumped whenever compaction moves records so an in-flight flush cannot publish a stale offset
+    private int epoch;
+    private boolean dirty;
+    private volatile boolean running;
+    private Thread drainer;
+    private Thread flusher;
+    private volatile Consumer<Message> storedListener;
+    private volatile Consumer<Message> rejectedListener;
+    private volatile Consumer<Message> stalledListener;
+
+    public MessageOutbox(MessageDAO messageDAO, int userId, SecretKey key) throws IOException {
+        AppConfig config = AppConfig.get();
+        this.messageDAO = messageDAO;
+        this.key = key;
+        this.syncMillis = config.getOutboxSyncMillis();
+        config.addListener(() -> syncMillis = config.getOutboxSyncMillis());
+        Path dir = Paths.get(config.getOutboxDir());
+        Files.createDirectories(dir);
+        Path file = dir.resolve("outbox-" + userId + ".journal");
+        rejectedFile = dir.resolve("outbox-" + userId + ".rejected");
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock acquired;
+        try {
+            acquired = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        lock = acquired;
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Outbox " + file + " is in use by another instance");
+        }
+        long size = Math.max(channel.size(), config.getOutboxSizeBytes());
+        journal = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        recover();
+    }
+
+    private void recover() {
+        if (journal.getLong(0) != MAGIC) {
+            journal.putLong(0, MAGIC);
+            journal.putLong(8, HEADER_SIZE);
+            journal.putInt(HEADER_SIZE, 0);
+            journal.force();
+        }
+        drainOffset = (int) journal.getLong(8);
+        writeOffset = drainOffset;
+        while (readRecord(writeOffset) != null) {
+            writeOffset = nextOffset(writeOffset);
+        }
+        syncedOffset = writeOffset;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        drainer = new Thread(this::drainLoop, "outbox-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        flusher = new Thread(this::flushLoop, "outbox-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Flushes the journal and releases the file; undrained records are replayed on the next start
+    public void stop() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (flusher != null) {
+            flusher.interrupt();
+        }
+        synchronized (this) {
+            sync();
+            try {
+                lock.release();
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing outbox: " + e.getMessage());
+            }
+        }
+    }
+
+    // Called on the drainer thread after each message reaches the database
+    public void setStoredListener(Consumer<Message> storedListener) {
+        this.storedListener = storedListener;
+    }
+
+    // Called on the drainer thread when the database refuses a message for good
+    public void setRejectedListener(Consumer<Message> rejectedListener) {
+        this.rejectedListener = rejectedListener;
+    }
+
+    // Called on the drainer thread when the oldest message has been retrying for STALL_NOTICE_MILLIS
+    public void setStalledListener(Consumer<Message> stalledListener) {
+        this.stalledListener = stalledListener;
+    }
+
+    // Returns false only if the journal is full and cannot be compacted
+    public synchronized boolean send(Message message) {
+        if (message.getClientMessageId() == null) {
+            message.setClientMessageId(UUID.randomUUID().toString());
+        }
+        byte[] payload = encode(message);
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (writeOffset + recordSize + 4 > journal.capacity()) {
+            compact();
+            if (writeOffset + recordSize + 4 > journal.capacity()) {
+                return false;
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        // Length goes in last; if a crash tears the record anyway, the checksum rejects it on recovery
+        journal.putInt(writeOffset + recordSize, 0);
+        journal.putLong(writeOffset + 4, crc.getValue());
+        journal.put(writeOffset + RECORD_HEADER_SIZE, payload);
+        journal.putInt(writeOffset, payload.length);
+        writeOffset += recordSize;
+        dirty = true;
+        notifyAll();
+        return true;
+    }
+
+    // Messages from sender to receiver that are still waiting to reach the database
+    public synchronized List<Message> getPending(int senderId, int receiverId) {
+        List<Message> pending = new ArrayList<>();
+        for (int offset = drainOffset; offset < writeOffset; offset = nextOffset(offset)) {
+            Message message = readRecord(offset);
+            if (message != null && message.getSenderId() == senderId && message.getReceiverId() == receiverId) {
+                pending.add(message);
+            }
+        }
+        return pending;
+    }
+
+    private void flushLoop() {
+        while (running) {
+            try {
+                Thread.sleep(syncMillis);
+            } catch (InterruptedException e) {
+                break;
+            }
+            flush();
+        }
+    }
+
+    // Forces the journal outside the lock so senders never wait on the disk
+    private boolean flush() {
+        int target;
+        int startEpoch;
+        synchronized (this) {
+            if (!dirty) {
+                return false;
+            }
+            dirty = false;
+            target = writeOffset;
+            startEpoch = epoch;
+        }
+        journal.force();
+        synchronized (this) {
+            if (epoch == startEpoch && target > syncedOffset) {
+                syncedOffset = target;
+            }
+        }
+        return true;
+    }
+
+    private void sync() {
+        if (dirty) {
+            journal.force();
+            dirty = false;
+            syncedOffset = writeOffset;
+        }
+    }
+
+    private void drainLoop() {
+        long backoff = MIN_BACKOFF_MILLIS;
+        long retryingSince = 0; // when the current head record first failed, 0 while it has not
+        boolean stallNoticed = false;
+        while (running) {
+            Message next;
+            boolean unsynced;
+            synchronized (this) {
+                while (running && drainOffset == writeOffset) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (!running) {
+                    return;
+                }
+                // Only replay what has reached the disk, so the database never runs ahead of the journal
+                unsynced = drainOffset >= syncedOffset;
+                next = unsynced ? null : readRecord(drainOffset);
+            }
+            if (unsynced) {
+                if (!flush()) {
+                    // The flusher is already forcing this data; give it a moment
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                continue;
+            }
+            MessageDAO.SaveResult result = next != null ? store(next) : MessageDAO.SaveResult.REJECTED;
+            if (result == MessageDAO.SaveResult.RETRY) {
+                long now = System.currentTimeMillis();
+                if (retryingSince == 0) {
+                    retryingSince = now;
+                } else if (!stallNoticed && now - retryingSince >= STALL_NOTICE_MILLIS) {
+                    stallNoticed = true;
+                    Consumer<Message> stalled = stalledListener;
+                    if (stalled != null) {
+                        stalled.accept(next);
+                    }
+                }
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+                continue;
+            }
+            backoff = MIN_BACKOFF_MILLIS;
+            retryingSince = 0;
+            stallNoticed = false;
+            if (next != null && result == MessageDAO.SaveResult.REJECTED) {
+                reject(next);
+            }
+            Consumer<Message> listener = result == MessageDAO.SaveResult.SAVED ? storedListener : rejectedListener;
+            if (next != null && listener != null) {
+                listener.accept(next);
+            }
+            synchronized (this) {
+                // A corrupt record cannot be replayed or stepped over, so the rest of the journal is dropped
+                drainOffset = next != null ? nextOffset(drainOffset) : writeOffset;
+                // Persisted lazily: a stale header only means replaying records the database already has
+                journal.putLong(8, drainOffset);
+                dirty = true;
+            }
+        }
+    }
+
+    private MessageDAO.SaveResult store(Message message) {
+        try {
+            message.setMessageText(SecurityUtil.decrypt(message.getEncryptedMessage(), key));
+        } catch (Exception e) {
+            System.err.println("Cannot decrypt outbox message " + message.getClientMessageId() + ": " + e.getMessage());
+            return MessageDAO.SaveResult.REJECTED;
+        }
+        return messageDAO.storeMessage(message);
+    }
+
+    // Keeps the rejected record, still encrypted, for inspection; the journal moves past it
+    private void reject(Message message) {
+        byte[] payload = encode(message);
+        ByteBuffer record = ByteBuffer.allocate(4 + payload.length);
+        record.putInt(payload.length);
+        record.put(payload);
+        try {
+            Files.write(rejectedFile, record.array(), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            System.err.println("Error writing rejected message: " + e.getMessage());
+        }
+        System.err.println("Message " + message.getClientMessageId() + " rejected by the database; moved to " + rejectedFile);
+    }
+
+    // Moves undrained records to the front of the journal to make room; runs only when the journal is full
+    private void compact() {
+        if (drainOffset == HEADER_SIZE) {
+            return;
+        }
+        int length = writeOffset - drainOffset;
+        byte[] live = new byte[length];
+        journal.get(drainOffset, live);
+        journal.put(HEADER_SIZE, live);
+        journal.putInt(HEADER_SIZE + length, 0);
+        journal.putLong(8, HEADER_SIZE);
+        drainOffset = HEADER_SIZE;
+        writeOffset = HEADER_SIZE + length;
+        journal.force();
+        dirty = false;
+        syncedOffset = writeOffset;
+        epoch++;
+    }
+
+    private int nextOffset(int offset) {
+        return offset + RECORD_HEADER_SIZE + journal.getInt(offset);
+    }
+
+    private Message readRecord(int offset) {
+        if (offset + RECORD_HEADER_SIZE > journal.capacity()) {
+            return null;
+        }
+        int length = journal.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > journal.capacity()) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        journal.get(offset + RECORD_HEADER_SIZE, payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != journal.getLong(offset + 4)) {
+            return null;
+        }
+        return decode(payload);
+    }
+
+    private static byte[] encode(Message message) {
+        // The plaintext slot is kept empty so the layout matches journals written before it was dropped
+        byte[][] strings = {
+            utf8(message.getClientMessageId()), new byte[0],
+            utf8(message.getEncryptedMessage()), utf8(message.getIv())
+        };
+        int size = 8;
+        for (byte[] s : strings) {
+            size += 4 + s.length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(message.getSenderId());
+        buf.putInt(message.getReceiverId());
+        for (byte[] s : strings) {
+            buf.putInt(s.length);
+            buf.put(s);
+        }
+        return buf.array();
+    }
+
+    private static Message decode(byte[] payload) {
+        ByteBuffer buf = ByteBuffer.wrap(payload);
+        Message message = new Message();
+        message.setSenderId(buf.getInt());
+        message.setReceiverId(buf.getInt());
+        message.setClientMessageId(readString(buf));
+        message.setMessageText(readString(buf));
+        message.setEncryptedMessage(readString(buf));
+        message.setIv(readString(buf));
+        return message;
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? new byte[0] : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
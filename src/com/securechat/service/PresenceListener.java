@@ -0,0 +1,6 @@
+package com.securechat.service;
+
+public interface PresenceListener {
+    // typingTo is the user id being typed to, or 0 when not typing
+    void presenceChanged(int userId, boolean online, int typingTo);
+}
@@ -0,0 +1,233 @@
+package com.securechat.service;
+
+import java.util.Arrays;
+
+/*
+ * In-memory presence state for every online user, kept in parallel primitive
+ * arrays indexed by an open-addressing hash of the user id (32 bytes per table
+ * slot, at most half of them in use). Expiry runs on a hashed timer wheel:
+ * each user sits in the slot of its next deadline, and a heartbeat only moves
+ * the deadline. The entry is re-slotted when its old slot comes round, so no
+ * per-user timer or thread is needed.
+ *
+ * Not thread-safe; PresenceService drives it from its single worker thread.
+ */
+public class PresenceRegistry {
+    private static final int WHEEL_SLOTS = 128;
+
+    private final long ttlTicks;
+    private final long typingTtlTicks;
+    private final int maxUsers;
+    private final PresenceListener listener;
+
+    private int[] keys;
+    private long[] deadlines;
+    private long[] typingDeadlines;
+    private long[] scheduled;
+    private int[] typingTo;
+    private int mask;
+    private int size;
+
+    private final int[][] slots = new int[WHEEL_SLOTS][];
+    private final int[] slotSizes = new int[WHEEL_SLOTS];
+    private long currentTick;
+
+    public PresenceRegistry(long ttlTicks, long typingTtlTicks, int maxUsers, PresenceListener listener) {
+        this.ttlTicks = Math.max(1, ttlTicks);
+        this.typingTtlTicks = Math.max(1, typingTtlTicks);
+        this.maxUsers = maxUsers;
+        this.listener = listener;
+        allocate(64);
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            slots[i] = new int[8];
+        }
+    }
+
+    public void heartbeat(int userId, int typingTarget) {
+        if (userId <= 0) {
+            return;
+        }
+        int idx = find(userId);
+        if (idx < 0) {
+            if (size >= maxUsers) {
+                return;
+            }
+            idx = insert(userId);
+            deadlines[idx] = currentTick + ttlTicks;
+            typingTo[idx] = typingTarget;
+            typingDeadlines[idx] = typingTarget != 0 ? currentTick + typingTtlTicks : 0;
+            scheduled[idx] = Long.MAX_VALUE;
+            schedule(idx);
+            listener.presenceChanged(userId, true, typingTarget);
+            return;
+        }
+        deadlines[idx] = currentTick + ttlTicks;
+        boolean changed = typingTo[idx] != typingTarget;
+        typingTo[idx] = typingTarget;
+        if (typingTarget != 0) {
+            typingDeadlines[idx] = currentTick + typingTtlTicks;
+        }
+        schedule(idx);
+        if (changed) {
+            listener.presenceChanged(userId, true, typingTarget);
+        }
+    }
+
+    // Processes every wheel slot up to and including tick
+    public void advance(long tick) {
+        while (currentTick < tick) {
+            currentTick++;
+            expireSlot((int) (currentTick % WHEEL_SLOTS));
+        }
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public boolean isOnline(int userId) {
+        return find(userId) >= 0;
+    }
+
+    public int getTypingTo(int userId) {
+        int idx = find(userId);
+        return idx < 0 ? 0 : typingTo[idx];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void expireSlot(int slot) {
+        int[] entries = slots[slot];
+        int count = slotSizes[slot];
+        slotSizes[slot] = 0;
+        for (int i = 0; i < count; i++) {
+            int userId = entries[i];
+            int idx = find(userId);
+            if (idx < 0 || scheduled[idx] % WHEEL_SLOTS != slot || scheduled[idx] < currentTick) {
+                continue; // stale copy; the user expired or was moved to an earlier slot
+            }
+            if (scheduled[idx] > currentTick) {
+                addToSlot(slot, userId); // due on a later turn of the wheel
+                continue;
+            }
+            if (deadlines[idx] <= currentTick) {
+                remove(idx);
+                listener.presenceChanged(userId, false, 0);
+                continue;
+            }
+            if (typingTo[idx] != 0 && typingDeadlines[idx] <= currentTick) {
+                typingTo[idx] = 0;
+                listener.presenceChanged(userId, true, 0);
+            }
+            scheduled[idx] = Long.MAX_VALUE;
+            schedule(idx);
+        }
+    }
+
+    private void schedule(int idx) {
+        long next = deadlines[idx];
+        if (typingTo[idx] != 0) {
+            next = Math.min(next, typingDeadlines[idx]);
+        }
+        // A later deadline is picked up when the current slot comes round; only move earlier
+        if (next < scheduled[idx]) {
+            scheduled[idx] = next;
+            addToSlot((int) (next % WHEEL_SLOTS), keys[idx]);
+        }
+    }
+
+    private void addToSlot(int slot, int userId) {
+        int[] entries = slots[slot];
+        if (slotSizes[slot] == entries.length) {
+            entries = Arrays.copyOf(entries, entries.length * 2);
+            slots[slot] = entries;
+        }
+        entries[slotSizes[slot]++] = userId;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int find(int key) {
+        int i = hash(key) & mask;
+        while (keys[i] != 0) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int insert(int key) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        int i = hash(key) & mask;
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        size++;
+        return i;
+    }
+
+    // Linear-probing delete that shifts later entries back instead of leaving tombstones
+    private void remove(int i) {
+        size--;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == 0) {
+                break;
+            }
+            int home = hash(keys[j]) & mask;
+            boolean movable = i <= j ? (home <= i || home > j) : (home <= i && home > j);
+            if (movable) {
+                copy(j, i);
+                i = j;
+            }
+        }
+        keys[i] = 0;
+    }
+
+    private void copy(int from, int to) {
+        keys[to] = keys[from];
+        deadlines[to] = deadlines[from];
+        typingDeadlines[to] = typingDeadlines[from];
+        scheduled[to] = scheduled[from];
+        typingTo[to] = typingTo[from];
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        deadlines = new long[capacity];
+        typingDeadlines = new long[capacity];
+        scheduled = new long[capacity];
+        typingTo = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        long[] oldDeadlines = deadlines;
+        long[] oldTypingDeadlines = typingDeadlines;
+        long[] oldScheduled = scheduled;
+        int[] oldTypingTo = typingTo;
+        allocate(capacity);
+        size = 0;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] != 0) {
+                int i = insert(oldKeys[j]);
+                deadlines[i] = oldDeadlines[j];
+                typingDeadlines[i] = oldTypingDeadlines[j];
+                scheduled[i] = oldScheduled[j];
+                typingTo[i] = oldTypingTo[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.securechat.service;
+
+import com.securechat.dao.PresenceDAO;
+import com.securechat.model.Presence;
+import com.securechat.util.AppConfig;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Tracks who is online and who is typing. Local heartbeats and typing
+ * notifications are coalesced per user and written to the presence table in
+ * one batch per window. In the same window, the heartbeats of watched users
+ * are polled back and fed into a PresenceRegistry, and listeners hear about
+ * changes to those users. All registry work runs on one worker thread.
+ *
+ * Each poll reads every watched row seen within the TTL, not only rows past
+ * a cursor, so a heartbeat that commits or replicates late is still picked
+ * up. A row only counts as a new heartbeat when its last_seen has moved on.
+ */
+public class PresenceService {
+    private static final long TICK_MILLIS = 250;
+    private static final int MAX_USERS = 200_000;
+
+    private final PresenceDAO presenceDAO;
+    private final long heartbeatMillis;
+    private volatile long batchMillis;
+    private final long ttlMillis;
+    private final PresenceRegistry registry;
+    private final Map<Integer, Integer> pending = new ConcurrentHashMap<>();
+    private final Map<Integer, List<PresenceListener>> watchers = new ConcurrentHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+    private ScheduledExecutorService worker;
+    private volatile int localUserId;
+    private long lastLocalHeartbeat;
+    // Latest last_seen applied per watched user; only touched by the worker thread
+    private final Map<Integer, Timestamp> lastSeen = new HashMap<>();
+
+    public PresenceService(PresenceDAO presenceDAO) {
+        AppConfig config = AppConfig.get();
+        this.presenceDAO = presenceDAO;
+        this.heartbeatMillis = config.getPresenceHeartbeatMillis();
+        this.batchMillis = config.getPresenceBatchMillis();
+        config.addListener(() -> batchMillis = config.getPresenceBatchMillis());
+        this.ttlMillis = config.getPresenceTtlMillis();
+        this.registry = new PresenceRegistry(ttlMillis / TICK_MILLIS,
+            config.getPresenceTypingTtlMillis() / TICK_MILLIS, MAX_USERS, this::dispatch);
+    }
+
+    // Starts heartbeating for the signed-in user and polling for watched users
+    public synchronized void start(int userId) {
+        if (worker != null) {
+            return;
+        }
+        localUserId = userId;
+        worker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "presence");
+            t.setDaemon(true);
+            return t;
+        });
+        worker.scheduleAtFixedRate(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        ScheduledExecutorService w = worker;
+        w.execute(() -> flushRound(w));
+    }
+
+    // Reschedules itself so a reloaded batch window applies from the next round
+    private void flushRound(ScheduledExecutorService w) {
+        flushAndPoll();
+        try {
+            w.schedule(() -> flushRound(w), batchMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    public synchronized void stop() {
+        if (worker != null) {
+            worker.shutdownNow();
+            worker = null;
+        }
+    }
+
+    public void heartbeat(int userId) {
+        // Keep a pending typing target rather than overwriting it with "not typing"
+        pending.putIfAbsent(userId, 0);
+    }
+
+    public void typing(int userId, int toUserId) {
+        pending.put(userId, toUserId);
+    }
+
+    // The listener first receives the current state of each watched user that is online
+    public void watch(Collection<Integer> userIds, PresenceListener listener) {
+        for (Integer userId : userIds) {
+            watchers.computeIfAbsent(userId, k -> new CopyOnWriteArrayList<>()).add(listener);
+        }
+        ScheduledExecutorService w = worker;
+        if (w != null) {
+            w.execute(() -> {
+                for (Integer userId : userIds) {
+                    if (registry.isOnline(userId)) {
+                        listener.presenceChanged(userId, true, registry.getTypingTo(userId));
+                    }
+                }
+            });
+        }
+    }
+
+    public void unwatch(PresenceListener listener) {
+        for (List<PresenceListener> listeners : watchers.values()) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void dispatch(int userId, boolean online, int typingTo) {
+        List<PresenceListener> listeners = watchers.get(userId);
+        if (listeners != null) {
+            for (PresenceListener listener : listeners) {
+                listener.presenceChanged(userId, online, typingTo);
+            }
+        }
+    }
+
+    private void tick() {
+        registry.advance((System.currentTimeMillis() - startMillis) / TICK_MILLIS);
+    }
+
+    private void flushAndPoll() {
+        try {
+            long now = System.currentTimeMillis();
+            if (localUserId != 0 && now - lastLocalHeartbeat >= heartbeatMillis) {
+                heartbeat(localUserId);
+                lastLocalHeartbeat = now;
+            }
+            if (!pending.isEmpty()) {
+                Map<Integer, Integer> batch = new HashMap<>();
+                for (Integer userId : pending.keySet()) {
+                    Integer typingTo = pending.remove(userId);
+                    if (typingTo != null) {
+                        batch.put(userId, typingTo);
+                    }
+                }
+                presenceDAO.saveHeartbeats(batch);
+            }
+
+            tick();
+            List<Integer> watched = new ArrayList<>();
+            for (Map.Entry<Integer, List<PresenceListener>> entry : watchers.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    watched.add(entry.getKey());
+                }
+            }
+            lastSeen.keySet().retainAll(watched);
+            for (Presence presence : presenceDAO.getHeartbeats(watched, ttlMillis)) {
+                Timestamp previous = lastSeen.get(presence.getUserId());
+                if (previous == null || presence.getLastSeen().after(previous)) {
+                    lastSeen.put(presence.getUserId(), presence.getLastSeen());
+                    registry.heartbeat(presence.getUserId(), presence.getTypingTo());
+                }
+            }
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; a failed round is retried on the next window
+            System.err.println("Error updating presence: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,428 @@
+package com.securechat.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Application settings. Each key is looked up as the system property
+ * "securechat.<key>", then the environment variable SECURECHAT_<KEY> (dots
+ * become underscores), then the config file, then the built-in default.
+ * The file is securechat.properties in the working directory unless
+ * -Dsecurechat.config points elsewhere.
+ *
+ * Keys listed in RELOADABLE are picked up again when the file changes;
+ * everything else keeps its startup value until the application restarts.
+ */
+public class AppConfig {
+    public static final String DB_URL = "db.url";
+    public static final String DB_USER = "db.user";
+    public static final String DB_PASSWORD = "db.password";
+    public static final String DB_REPLICAS = "db.replicas";
+    public static final String DB_POOL_SIZE = "db.poolSize";
+    public static final String DB_STICKY_MILLIS = "db.stickyMillis";
+    public static final String DB_HEALTH_INTERVAL_MILLIS = "db.healthIntervalMillis";
+    public static final String DB_MAX_LATENCY_MILLIS = "db.maxLatencyMillis";
+    public static final String CRYPTO_ALGORITHM = "crypto.algorithm";
+    public static final String CRYPTO_COMPRESS = "crypto.compress";
+    public static final String CRYPTO_COMPRESS_MIN_BYTES = "crypto.compressMinBytes";
+    public static final String AUTH_ATTEMPTS_PER_MINUTE = "auth.attemptsPerMinute";
+    public static final String AUTH_LOCKOUT_THRESHOLD = "auth.lockoutThreshold";
+    public static final String AUTH_LOCKOUT_BASE_MILLIS = "auth.lockoutBaseMillis";
+    public static final String AUTH_LOCKOUT_MAX_MILLIS = "auth.lockoutMaxMillis";
+    public static final String PRESENCE_HEARTBEAT_MILLIS = "presence.heartbeatMillis";
+    public static final String PRESENCE_BATCH_MILLIS = "presence.batchMillis";
+    public static final String PRESENCE_TTL_MILLIS = "presence.ttlMillis";
+    public static final String PRESENCE_TYPING_TTL_MILLIS = "presence.typingTtlMillis";
+    public static final String OUTBOX_DIR = "outbox.dir";
+    public static final String OUTBOX_SIZE_BYTES = "outbox.sizeBytes";
+    public static final String OUTBOX_SYNC_MILLIS = "outbox.syncMillis";
+    public static final String EVENTS_BATCH_MILLIS = "events.batchMillis";
+    public static final String HISTORY_PAGE_SIZE = "history.pageSize";
+    public static final String HISTORY_PREFETCH_CONVERSATIONS = "history.prefetchConversations";
+    public static final String HISTORY_CACHE_CONVERSATIONS = "history.cacheConversations";
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+    static {
+        DEFAULTS.put(DB_URL, "jdbc:mysql://localhost:3306/secure_chat");
+        DEFAULTS.put(DB_USER, "root");
+        DEFAULTS.put(DB_PASSWORD, "");
+        DEFAULTS.put(DB_REPLICAS, "");
+        DEFAULTS.put(DB_POOL_SIZE, "4");
+        DEFAULTS.put(DB_STICKY_MILLIS, "2000");
+        DEFAULTS.put(DB_HEALTH_INTERVAL_MILLIS, "5000");
+        DEFAULTS.put(DB_MAX_LATENCY_MILLIS, "500");
+        DEFAULTS.put(CRYPTO_ALGORITHM, "AES/CBC/PKCS5Padding");
+        DEFAULTS.put(CRYPTO_COMPRESS, "false");
+        DEFAULTS.put(CRYPTO_COMPRESS_MIN_BYTES, "128");
+        DEFAULTS.put(AUTH_ATTEMPTS_PER_MINUTE, "10");
+        DEFAULTS.put(AUTH_LOCKOUT_THRESHOLD, "5");
+        DEFAULTS.put(AUTH_LOCKOUT_BASE_MILLIS, "1000");
+        DEFAULTS.put(AUTH_LOCKOUT_MAX_MILLIS, "900000");
+        DEFAULTS.put(PRESENCE_HEARTBEAT_MILLIS, "5000");
+        DEFAULTS.put(PRESENCE_BATCH_MILLIS, "1000");
+        DEFAULTS.put(PRESENCE_TTL_MILLIS, "15000");
+        DEFAULTS.put(PRESENCE_TYPING_TTL_MILLIS, "4000");
+        DEFAULTS.put(OUTBOX_DIR, "outbox");
+        DEFAULTS.put(OUTBOX_SIZE_BYTES, "8388608");
+        DEFAULTS.put(OUTBOX_SYNC_MILLIS, "10");
+        DEFAULTS.put(EVENTS_BATCH_MILLIS, "500");
+        DEFAULTS.put(HISTORY_PAGE_SIZE, "50");
+        DEFAULTS.put(HISTORY_PREFETCH_CONVERSATIONS, "5");
+        DEFAULTS.put(HISTORY_CACHE_CONVERSATIONS, "20");
+    }
+
+    private static final Set<String> RELOADABLE = new HashSet<>(Arrays.asList(
+        DB_POOL_SIZE, DB_STICKY_MILLIS, DB_HEALTH_INTERVAL_MILLIS, DB_MAX_LATENCY_MILLIS,
+        CRYPTO_COMPRESS, CRYPTO_COMPRESS_MIN_BYTES, PRESENCE_BATCH_MILLIS, OUTBOX_SYNC_MILLIS,
+        EVENTS_BATCH_MILLIS, HISTORY_CACHE_CONVERSATIONS));
+
+    private static AppConfig instance;
+
+    private final Path file;
+    private volatile Map<String, String> values;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private Thread watcher;
+
+    private AppConfig(Path file) {
+        this.file = file;
+        this.values = resolve(readFile());
+        List<String> errors = validate(values);
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Invalid configuration: " + String.join("; ", errors));
+        }
+    }
+
+    public static synchronized AppConfig get() {
+        if (instance == null) {
+            instance = new AppConfig(Paths.get(System.getProperty("securechat.config", "securechat.properties")));
+        }
+        return instance;
+    }
+
+    public String getDbUrl() {
+        return values.get(DB_URL);
+    }
+
+    public String getDbUser() {
+        return values.get(DB_USER);
+    }
+
+    public String getDbPassword() {
+        return values.get(DB_PASSWORD);
+    }
+
+    public String getDbReplicas() {
+        return values.get(DB_REPLICAS);
+    }
+
+    public int getDbPoolSize() {
+        return Integer.parseInt(values.get(DB_POOL_SIZE));
+    }
+
+    public long getDbStickyMillis() {
+        return Long.parseLong(values.get(DB_STICKY_MILLIS));
+    }
+
+    public long getDbHealthIntervalMillis() {
+        return Long.parseLong(values.get(DB_HEALTH_INTERVAL_MILLIS));
+    }
+
+    public long getDbMaxLatencyMillis() {
+        return Long.parseLong(values.get(DB_MAX_LATENCY_MILLIS));
+    }
+
+    public String getCryptoAlgorithm() {
+        return values.get(CRYPTO_ALGORITHM);
+    }
+
+    public boolean isCryptoCompress() {
+        return Boolean.parseBoolean(values.get(CRYPTO_COMPRESS));
+    }
+
+    public int getCryptoCompressMinBytes() {
+        return Integer.parseInt(values.get(CRYPTO_COMPRESS_MIN_BYTES));
+    }
+
+    public int getAuthAttemptsPerMinute() {
+        return Integer.parseInt(values.get(AUTH_ATTEMPTS_PER_MINUTE));
+    }
+
+    public int getAuthLockoutThreshold() {
+        return Integer.parseInt(values.get(AUTH_LOCKOUT_THRESHOLD));
+    }
+
+    public long getAuthLockoutBaseMillis() {
+        return Long.parseLong(values.get(AUTH_LOCKOUT_BASE_MILLIS));
+    }
+
+    public long getAuthLockoutMaxMillis() {
+        return Long.parseLong(values.get(AUTH_LOCKOUT_MAX_MILLIS));
+    }
+
+    public long getPresenceHeartbeatMillis() {
+        return Long.parseLong(values.get(PRESENCE_HEARTBEAT_MILLIS));
+    }
+
+    public long getPresenceBatchMillis() {
+        return Long.parseLong(values.get(PRESENCE_BATCH_MILLIS));
+    }
+
+    public long getPresenceTtlMillis() {
+        return Long.parseLong(values.get(PRESENCE_TTL_MILLIS));
+    }
+
+    public long getPresenceTypingTtlMillis() {
+        return Long.parseLong(values.get(PRESENCE_TYPING_TTL_MILLIS));
+    }
+
+    public String getOutboxDir() {
+        return values.get(OUTBOX_DIR);
+    }
+
+    public int getOutboxSizeBytes() {
+        return Integer.parseInt(values.get(OUTBOX_SIZE_BYTES));
+    }
+
+    public long getOutboxSyncMillis() {
+        return Long.parseLong(values.get(OUTBOX_SYNC_MILLIS));
+    }
+
+    public long getEventsBatchMillis() {
+        return Long.parseLong(values.get(EVENTS_BATCH_MILLIS));
+    }
+
+    public int getHistoryPageSize() {
+        return Integer.parseInt(values.get(HISTORY_PAGE_SIZE));
+    }
+
+    public int getHistoryPrefetchConversations() {
+        return Integer.parseInt(values.get(HISTORY_PREFETCH_CONVERSATIONS));
+    }
+
+    public int getHistoryCacheConversations() {
+        return Integer.parseInt(values.get(HISTORY_CACHE_CONVERSATIONS));
+    }
+
+    // Listeners run on the watcher thread after reloadable values change
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void startWatching() {
+        Path dir = file.toAbsolutePath().getParent();
+        if (watcher != null || dir == null || !Files.isDirectory(dir)) {
+            return;
+        }
+        WatchService service;
+        try {
+            service = dir.getFileSystem().newWatchService();
+            dir.register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            System.err.println("Config file watching disabled: " + e.getMessage());
+            return;
+        }
+        watcher = new Thread(() -> watch(service), "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch(WatchService service) {
+        Path name = file.getFileName();
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (name.equals(event.context())) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // shutting down
+        }
+    }
+
+    synchronized void reload() {
+        Map<String, String> fresh = resolve(readFile());
+        Map<String, String> next = new LinkedHashMap<>(values);
+        List<String> restartOnly = new ArrayList<>();
+        boolean changed = false;
+        for (Map.Entry<String, String> entry : fresh.entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue().equals(next.get(key))) {
+                continue;
+            }
+            if (RELOADABLE.contains(key)) {
+                next.put(key, entry.getValue());
+                changed = true;
+            } else {
+                restartOnly.add(key);
+            }
+        }
+        // Check the file as the next restart would see it, and the mix of startup and reloaded values in effect now
+        List<String> errors = validate(fresh);
+        if (errors.isEmpty()) {
+            errors = validate(next);
+        }
+        if (!errors.isEmpty()) {
+            System.err.println("Ignoring config reload: " + String.join("; ", errors));
+            return;
+        }
+        for (String key : restartOnly) {
+            System.err.println("Config key " + key + " changed; restart to apply");
+        }
+        if (changed) {
+            values = next;
+            for (Runnable listener : listeners) {
+                // One failing listener must not stop the others or kill the watcher thread
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Error applying config reload: " + e);
+                }
+            }
+        }
+    }
+
+    private Properties readFile() {
+        Properties props = new Properties();
+        if (Files.isRegularFile(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                props.load(in);
+            } catch (IOException e) {
+                System.err.println("Error reading config file " + file + ": " + e.getMessage());
+            }
+        }
+        return props;
+    }
+
+    private static Map<String, String> resolve(Properties fileProps) {
+        Map<String, String> resolved = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : DEFAULTS.entrySet()) {
+            String key = entry.getKey();
+            String value = System.getProperty("securechat." + key);
+            if (value == null) {
+                value = System.getenv("SECURECHAT_" + key.toUpperCase().replace('.', '_'));
+            }
+            if (value == null) {
+                value = fileProps.getProperty(key, entry.getValue());
+            }
+            resolved.put(key, value.trim());
+        }
+        return resolved;
+    }
+
+    private static List<String> validate(Map<String, String> values) {
+        List<String> errors = new ArrayList<>();
+        if (!values.get(DB_URL).startsWith("jdbc:")) {
+            errors.add(DB_URL + " must be a JDBC URL");
+        }
+        for (String url : values.get(DB_REPLICAS).split(",")) {
+            if (!url.isBlank() && !url.trim().startsWith("jdbc:")) {
+                errors.add(DB_REPLICAS + " entry '" + url.trim() + "' must be a JDBC URL");
+            }
+        }
+        checkInt(values, DB_POOL_SIZE, 0, errors);
+        checkMinimum(values, DB_STICKY_MILLIS, 0, errors);
+        checkMinimum(values, DB_HEALTH_INTERVAL_MILLIS, 1, errors);
+        checkMinimum(values, DB_MAX_LATENCY_MILLIS, 1, errors);
+        checkInt(values, AUTH_ATTEMPTS_PER_MINUTE, 1, errors);
+        checkInt(values, AUTH_LOCKOUT_THRESHOLD, 1, errors);
+        checkMinimum(values, AUTH_LOCKOUT_BASE_MILLIS, 1, errors);
+        checkMinimum(values, AUTH_LOCKOUT_MAX_MILLIS, 1, errors);
+        checkMinimum(values, PRESENCE_HEARTBEAT_MILLIS, 250, errors);
+        checkMinimum(values, PRESENCE_BATCH_MILLIS, 250, errors);
+        checkMinimum(values, PRESENCE_TTL_MILLIS, 250, errors);
+        checkMinimum(values, PRESENCE_TYPING_TTL_MILLIS, 250, errors);
+        checkInt(values, OUTBOX_SIZE_BYTES, 65536, errors);
+        checkMinimum(values, OUTBOX_SYNC_MILLIS, 1, errors);
+        checkMinimum(values, EVENTS_BATCH_MILLIS, 50, errors);
+        checkInt(values, CRYPTO_COMPRESS_MIN_BYTES, 0, errors);
+        checkInt(values, HISTORY_PAGE_SIZE, 1, errors);
+        checkInt(values, HISTORY_PREFETCH_CONVERSATIONS, 0, errors);
+        checkInt(values, HISTORY_CACHE_CONVERSATIONS, 1, errors);
+        if (errors.isEmpty() && Long.parseLong(values.get(HISTORY_CACHE_CONVERSATIONS))
+                < Long.parseLong(values.get(HISTORY_PREFETCH_CONVERSATIONS))) {
+            errors.add(HISTORY_CACHE_CONVERSATIONS + " must be at least " + HISTORY_PREFETCH_CONVERSATIONS);
+        }
+        if (errors.isEmpty() && Long.parseLong(values.get(PRESENCE_TTL_MILLIS))
+                <= Long.parseLong(values.get(PRESENCE_HEARTBEAT_MILLIS)) + Long.parseLong(values.get(PRESENCE_BATCH_MILLIS))) {
+            errors.add(PRESENCE_TTL_MILLIS + " must exceed " + PRESENCE_HEARTBEAT_MILLIS + " plus " + PRESENCE_BATCH_MILLIS);
+        }
+        if (!cipherRoundTrips(values.get(CRYPTO_ALGORITHM))) {
+            errors.add(CRYPTO_ALGORITHM + " '" + values.get(CRYPTO_ALGORITHM)
+                + "' must be an AES mode that takes a 16-byte IV");
+        }
+        String compress = values.get(CRYPTO_COMPRESS);
+        if (!compress.equals("true") && !compress.equals("false")) {
+            errors.add(CRYPTO_COMPRESS + " must be true or false");
+        } else if (compress.equals("true") && !values.get(CRYPTO_ALGORITHM).endsWith("/PKCS5Padding")) {
+            // SecurityUtil tells the payload formats apart by length, which needs whole cipher blocks
+            errors.add(CRYPTO_COMPRESS + " requires a block cipher with PKCS5Padding");
+        }
+        return errors;
+    }
+
+    // Mirrors how SecurityUtil uses the cipher: an AES-256 key and a 16-byte IvParameterSpec
+    private static boolean cipherRoundTrips(String algorithm) {
+        try {
+            byte[] probe = "config-check".getBytes(StandardCharsets.UTF_8);
+            SecretKeySpec key = new SecretKeySpec(new byte[32], "AES");
+            IvParameterSpec iv = new IvParameterSpec(new byte[16]);
+            Cipher cipher = Cipher.getInstance(algorithm);
+            cipher.init(Cipher.ENCRYPT_MODE, key, iv);
+            byte[] encrypted = cipher.doFinal(probe);
+            cipher.init(Cipher.DECRYPT_MODE, key, iv);
+            return Arrays.equals(probe, cipher.doFinal(encrypted));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    // For keys read with Integer.parseInt, so a value that passes here cannot fail in the getter
+    private static void checkInt(Map<String, String> values, String key, int min, List<String> errors) {
+        try {
+            if (Integer.parseInt(values.get(key)) < min) {
+                errors.add(key + " must be at least " + min);
+            }
+        } catch (NumberFormatException e) {
+            errors.add(key + " must be a number no larger than " + Integer.MAX_VALUE);
+        }
+    }
+
+    private static void checkMinimum(Map<String, String> values, String key, long min, List<String> errors) {
+        try {
+            if (Long.parseLong(values.get(key)) < min) {
+                errors.add(key + " must be at least " + min);
+            }
+        } catch (NumberFormatException e) {
+            errors.add(key + " must be a number");
+        }
+    }
+}
@@ -1,18 +1,59 @@
 package com.securechat.util;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class DBConnection {
-    private static final String URL = "jdbc:mysql://localhost:3306/secure_chat";
-    private static final String USER = "root";
-    private static final String PASSWORD = "";
-    
-    public static Connection getConnection() throws SQLException {
-        try {
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            return DriverManager.getConnection(URL, USER, PASSWORD);
-        } catch (ClassNotFoundException ex) {
-            throw new SQLException("MySQL JDBC Driver not found", ex);
+    private static RoutingDataSource dataSource;
+
+    private static synchronized RoutingDataSource getDataSource() throws SQLException {
+        if (dataSource == null) {
+            try {
+                Class.forName("com.mysql.cj.jdbc.Driver");
+            } catch (ClassNotFoundException ex) {
+                throw new SQLException("MySQL JDBC Driver not found", ex);
+            }
+            AppConfig config = AppConfig.get();
+            // Replicas are a comma-separated list, e.g. jdbc:mysql://localhost:3307/secure_chat,jdbc:mysql://localhost:3308/secure_chat
+            List<DBNode> replicas = new ArrayList<>();
+            for (String url : config.getDbReplicas().split(",")) {
+                if (!url.isBlank()) {
+                    replicas.add(new DBNode(url.trim(), config.getDbUser(), config.getDbPassword(),
+                        config.getDbPoolSize()));
+                }
+            }
+            RoutingDataSource ds = new RoutingDataSource(
+                new DBNode(config.getDbUrl(), config.getDbUser(), config.getDbPassword(), config.getDbPoolSize()),
+                replicas, config.getDbStickyMillis());
+            ds.startHealthChecks(config.getDbHealthIntervalMillis(), config.getDbMaxLatencyMillis());
+            config.addListener(() -> {
+                ds.setMaxIdle(config.getDbPoolSize());
+                ds.setStickyMillis(config.getDbStickyMillis());
+                ds.restartHealthChecks(config.getDbHealthIntervalMillis(), config.getDbMaxLatencyMillis());
+            });
+            dataSource = ds;
         }
+        return dataSource;
+    }
+
+    // Loads the driver and opens idle connections in the background before the first login
+    public static void prewarm() throws SQLException {
+        getDataSource().warm();
+    }
+
+    // Primary connection, for writes and anything that must see the latest data
+    public static Connection getConnection() throws SQLException {
+        return getDataSource().getWriteConnection();
+    }
+
+    // Primary connection for background writes (presence, receipts) that should not affect read routing
+    public static Connection getBackgroundConnection() throws SQLException {
+        return getDataSource().getBackgroundConnection();
+    }
+
+    // Replica connection for reads; falls back to the primary when no replica is healthy
+    public static Connection getReadConnection() throws SQLException {
+        return getDataSource().getReadConnection();
     }
 }
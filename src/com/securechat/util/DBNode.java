@@ -0,0 +1,195 @@
+package com.securechat.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One database instance behind the RoutingDataSource, with its load, health state and idle connections
+public class DBNode {
+    // Idle connections older than this are validated before being handed out again
+    private static final long VALIDATE_AFTER_MILLIS = 30_000;
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final Deque<IdleConnection> idle = new ConcurrentLinkedDeque<>();
+    private volatile int maxIdle;
+    private volatile boolean healthy = true;
+    private volatile long lastLatencyMillis;
+    // Connector/J connect and read timeouts; 0 means none, so a hung node could block forever
+    private volatile long connectTimeoutMillis;
+    private volatile long socketTimeoutMillis;
+
+    public DBNode(String url, String user, String password, int maxIdle) {
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.maxIdle = maxIdle;
+    }
+
+    // Closing the returned connection hands it back to the idle pool and releases this node's outstanding slot
+    public Connection open() throws SQLException {
+        outstanding.incrementAndGet();
+        Connection conn;
+        try {
+            conn = take();
+        } catch (SQLException e) {
+            outstanding.decrementAndGet();
+            throw e;
+        }
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            (proxy, method, args) -> {
+                String name = method.getName();
+                if ("close".equals(name)) {
+                    if (released.compareAndSet(false, true)) {
+                        outstanding.decrementAndGet();
+                        release(conn);
+                    }
+                    return null;
+                }
+                if ("isClosed".equals(name) && released.get()) {
+                    return true;
+                }
+                if (released.get()) {
+                    throw new SQLException("Connection is closed");
+                }
+                try {
+                    return method.invoke(conn, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+    }
+
+    // Opens a connection ahead of time so the first real request skips the handshake
+    public void warm() throws SQLException {
+        if (idle.isEmpty() && maxIdle > 0) {
+            release(connect());
+        }
+    }
+
+    // Applies to connections opened from now on
+    public void setTimeouts(long connectTimeoutMillis, long socketTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.socketTimeoutMillis = socketTimeoutMillis;
+    }
+
+    private Connection connect() throws SQLException {
+        return connect(socketTimeoutMillis);
+    }
+
+    private Connection connect(long socketTimeoutMillis) throws SQLException {
+        Properties props = new Properties();
+        props.setProperty("user", user);
+        props.setProperty("password", password);
+        props.setProperty("connectTimeout", String.valueOf(connectTimeoutMillis));
+        props.setProperty("socketTimeout", String.valueOf(socketTimeoutMillis));
+        return DriverManager.getConnection(url, props);
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        this.maxIdle = maxIdle;
+        trimIdle(maxIdle);
+    }
+
+    private void trimIdle(int keep) {
+        IdleConnection entry;
+        while (idle.size() > keep && (entry = idle.pollLast()) != null) {
+            closeQuietly(entry.conn);
+        }
+    }
+
+    private Connection take() throws SQLException {
+        IdleConnection entry;
+        while ((entry = idle.pollFirst()) != null) {
+            if (System.currentTimeMillis() - entry.returnedAt < VALIDATE_AFTER_MILLIS || entry.conn.isValid(1)) {
+                return entry.conn;
+            }
+            closeQuietly(entry.conn);
+        }
+        return connect();
+    }
+
+    private void release(Connection conn) {
+        try {
+            if (conn.isClosed()) {
+                return;
+            }
+            if (!conn.getAutoCommit()) {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+            if (healthy && idle.size() < maxIdle) {
+                idle.offerFirst(new IdleConnection(conn));
+                return;
+            }
+        } catch (SQLException e) {
+            // fall through and discard it
+        }
+        closeQuietly(conn);
+    }
+
+    private static void closeQuietly(Connection conn) {
+        try {
+            conn.close();
+        } catch (SQLException e) {
+            // already unusable
+        }
+    }
+
+    public void checkHealth(int timeoutSeconds, long maxLatencyMillis) {
+        long start = System.nanoTime();
+        // A probe only pings, so a node that stalls mid-handshake fails within the connect timeout
+        try (Connection conn = connect(connectTimeoutMillis)) {
+            boolean valid = conn.isValid(timeoutSeconds);
+            lastLatencyMillis = (System.nanoTime() - start) / 1_000_000;
+            healthy = valid && lastLatencyMillis <= maxLatencyMillis;
+        } catch (SQLException e) {
+            healthy = false;
+        }
+        if (!healthy) {
+            trimIdle(0);
+        }
+    }
+
+    public void markUnhealthy() {
+        healthy = false;
+        trimIdle(0);
+    }
+
+    public boolean isHealthy() {
+        return healthy;
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    private static class IdleConnection {
+        final Connection conn;
+        final long returnedAt = System.currentTimeMillis();
+
+        IdleConnection(Connection conn) {
+            this.conn = conn;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.securechat.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Throttles login attempts per key (username or source) before any database
+ * or hashing work is done. Each key has a token bucket packed into a single
+ * AtomicLong, so checks against a bucket are lock-free. Repeated failures add
+ * an exponentially growing lockout on top of the bucket.
+ *
+ * Keys are spread over shards, each a bounded ConcurrentHashMap, so looking
+ * up a known key takes no lock; only adding a key locks its shard. When a
+ * shard is full, a clock hand samples EVICTION_SAMPLE entries and the new key
+ * replaces the least recently refilled one that is idle. If none is idle, the
+ * shard is under a flood of distinct keys, and the new key shares the shard's
+ * overflow bucket, so a spray of usernames is throttled as one. Both paths
+ * are O(1) and memory stays bounded.
+ */
+public class LoginRateLimiter {
+    private static final int TOKEN_BITS = 16;
+    private static final long TOKEN_MASK = (1L << TOKEN_BITS) - 1;
+    private static final int SHARDS = 16;
+    private static final int MAX_KEYS_PER_SHARD = 8192;
+    private static final int EVICTION_SAMPLE = 8;
+
+    private static LoginRateLimiter instance;
+
+    private final int capacity;
+    private final long refillMillis;
+    private final int lockoutThreshold;
+    private final long lockoutBaseMillis;
+    private final long lockoutMaxMillis;
+    private final Shard[] shards = new Shard[SHARDS];
+
+    public LoginRateLimiter(int attemptsPerMinute, int lockoutThreshold,
+                            long lockoutBaseMillis, long lockoutMaxMillis) {
+        this.capacity = (int) Math.min(TOKEN_MASK, Math.max(1, attemptsPerMinute));
+        this.refillMillis = Math.max(1, 60_000L / this.capacity);
+        this.lockoutThreshold = lockoutThreshold;
+        this.lockoutBaseMillis = lockoutBaseMillis;
+        this.lockoutMaxMillis = lockoutMaxMillis;
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    public static synchronized LoginRateLimiter getInstance() {
+        if (instance == null) {
+            AppConfig config = AppConfig.get();
+            instance = new LoginRateLimiter(config.getAuthAttemptsPerMinute(), config.getAuthLockoutThreshold(),
+                config.getAuthLockoutBaseMillis(), config.getAuthLockoutMaxMillis());
+        }
+        return instance;
+    }
+
+    // Returns 0 and consumes an attempt when the key may proceed, otherwise the millis to wait
+    public long tryAcquire(String key) {
+        long now = System.currentTimeMillis();
+        return shard(key).bucket(key, now).tryAcquire(now);
+    }
+
+    public void recordFailure(String key) {
+        Bucket bucket = shard(key).bucket(key, System.currentTimeMillis());
+        int failures = bucket.failures.incrementAndGet();
+        if (failures >= lockoutThreshold) {
+            int shift = Math.min(failures - lockoutThreshold, 30);
+            // Clamp before shifting; a large base would otherwise overflow to a negative lockout
+            long lockout = lockoutBaseMillis > lockoutMaxMillis >> shift ? lockoutMaxMillis : lockoutBaseMillis << shift;
+            long now = System.currentTimeMillis();
+            bucket.lockedUntil = now + Math.min(lockout, Long.MAX_VALUE - now);
+        }
+    }
+
+    // Only a tracked key is reset; a success must not lift the shared overflow lockout
+    public void recordSuccess(String key) {
+        Bucket bucket = shard(key).tracked(key);
+        if (bucket != null) {
+            bucket.failures.set(0);
+            bucket.lockedUntil = 0;
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    private Shard shard(String key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & (SHARDS - 1)];
+    }
+
+    private class Shard {
+        private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+        private final Bucket overflow = new Bucket(capacity, System.currentTimeMillis());
+        // Clock hand for eviction, and the last millisecond a sample found nothing idle; guarded by the shard lock
+        private Iterator<Map.Entry<String, Bucket>> hand;
+        private long noIdleAt = -1;
+
+        Bucket bucket(String key, long now) {
+            Bucket bucket = buckets.get(key);
+            return bucket != null ? bucket : add(key, now);
+        }
+
+        private synchronized Bucket add(String key, long now) {
+            Bucket bucket = buckets.get(key);
+            if (bucket != null) {
+                return bucket;
+            }
+            if (buckets.size() >= MAX_KEYS_PER_SHARD && !evictIdle(now)) {
+                return overflow;
+            }
+            bucket = new Bucket(capacity, now);
+            buckets.put(key, bucket);
+            return bucket;
+        }
+
+        private boolean evictIdle(long now) {
+            // Under a flood, sample at most once per millisecond rather than on every new key
+            if (now == noIdleAt) {
+                return false;
+            }
+            Map.Entry<String, Bucket> victim = null;
+            for (int i = 0; i < EVICTION_SAMPLE; i++) {
+                if (hand == null || !hand.hasNext()) {
+                    hand = buckets.entrySet().iterator();
+                }
+                Map.Entry<String, Bucket> entry = hand.next();
+                if (entry.getValue().isIdle(now)
+                        && (victim == null || entry.getValue().lastRefill() < victim.getValue().lastRefill())) {
+                    victim = entry;
+                }
+            }
+            if (victim == null) {
+                noIdleAt = now;
+                return false;
+            }
+            return buckets.remove(victim.getKey(), victim.getValue());
+        }
+
+        Bucket tracked(String key) {
+            return buckets.get(key);
+        }
+
+        int size() {
+            return buckets.size();
+        }
+    }
+
+    private class Bucket {
+        // High bits: time of the last refill in millis, low TOKEN_BITS: tokens left
+        private final AtomicLong state;
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile long lockedUntil;
+
+        Bucket(int tokens, long now) {
+            state = new AtomicLong((now << TOKEN_BITS) | tokens);
+        }
+
+        long lastRefill() {
+            return state.get() >>> TOKEN_BITS;
+        }
+
+        // A refilled bucket that is not locked out carries no state worth keeping
+        boolean isIdle(long now) {
+            return lockedUntil <= now && now - lastRefill() >= refillMillis * capacity;
+        }
+
+        long tryAcquire(long now) {
+            long locked = lockedUntil;
+            if (locked > now) {
+                return locked - now;
+            }
+            while (true) {
+                long current = state.get();
+                long last = current >>> TOKEN_BITS;
+                long tokens = current & TOKEN_MASK;
+                long refills = (now - last) / refillMillis;
+                if (refills > 0) {
+                    tokens = Math.min(capacity, tokens + refills);
+                    last = tokens == capacity ? now : last + refills * refillMillis;
+                }
+                if (tokens == 0) {
+                    return Math.max(1, last + refillMillis - now);
+                }
+                long next = (last << TOKEN_BITS) | (tokens - 1);
+                if (state.compareAndSet(current, next)) {
+                    return 0;
+                }
+            }
+        }
+    }
+}
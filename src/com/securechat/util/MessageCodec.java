@@ -0,0 +1,107 @@
+package com.securechat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*
+ * Raw Deflate with a preset dictionary of text that is common in our chats:
+ * everyday phrases, log lines, stack traces and code. Short messages gain
+ * little from plain Deflate because there is nothing earlier in the message
+ * to refer back to; the dictionary supplies that history.
+ *
+ * DICTIONARY_V1 was assembled by hand. CompressionBenchmark measures it on a
+ * held-out corpus against no dictionary and against one trained by
+ * DictionaryTrainer, which can also build a replacement from an export of
+ * real messages.
+ *
+ * The dictionary is part of the stored format. Never edit DICTIONARY_V1;
+ * add a new dictionary under a new SecurityUtil format flag instead.
+ */
+public class MessageCodec {
+    // Deflate favours matches near the end of the dictionary, so the most common text goes last
+    private static final byte[] DICTIONARY_V1 = (
+        "SELECT * FROM  WHERE  = ? AND  ORDER BY  LIMIT INSERT INTO  VALUES UPDATE  SET "
+        + "public static void private final class interface return new String int long boolean "
+        + "if (null != null) { } else { } for (int i = 0; i < ; i++) { try { } catch (Exception e) { "
+        + "throw new IllegalStateException( import java.util.List; import java.util.Map; "
+        + "function const let => { console.log( def self, __init__ print( None True False "
+        + "```java ``` ```python ```sql ```bash $ git commit -m git push origin main mvn clean install "
+        + "npm install ./gradlew build docker compose up -d kubectl get pods -n "
+        + "Exception in thread \"main\" java.lang.NullPointerException java.lang.IllegalArgumentException "
+        + "java.sql.SQLException: Caused by: \tat java.base/java.lang.Thread.run(Thread.java:"
+        + "\tat com.securechat. \tat org.springframework. ... more\n"
+        + "2025-01-01 00:00:00.000 INFO  WARN  ERROR DEBUG [main] [http-nio-8080-exec-1] "
+        + "Connection refused timed out after ms HTTP/1.1 200 OK 404 Not Found 500 Internal Server Error "
+        + "https://github.com/ https://www. localhost:8080 /api/v1/ .json .yaml .xml .log "
+        + "Can you take a look at this? I think the issue is that it works on my machine "
+        + "Let me know if you have any questions. Sounds good, thanks! Thank you so much. "
+        + "I'll check and get back to you. Did you see the error? Here is the stack trace: "
+        + "the meeting tomorrow morning, what do you think about the PR? can we merge it? "
+        + "Hi, Hello, Hey, how are you? I am good, thanks. ok okay yes no sure lol :) "
+        + "the and to of a in is it you that for on with this be are have not was at but"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    // Decompression bomb guard; far above anything the chat window can show
+    private static final int MAX_INFLATED_BYTES = 16 * 1024 * 1024;
+
+    private static final ThreadLocal<Deflater> DEFLATERS =
+        ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> INFLATERS =
+        ThreadLocal.withInitial(() -> new Inflater(true));
+
+    public static byte[] deflate(byte[] input) {
+        return deflate(input, DICTIONARY_V1);
+    }
+
+    public static byte[] inflate(byte[] input) throws DataFormatException {
+        return inflate(input, DICTIONARY_V1);
+    }
+
+    // Copy of the stored-format dictionary, for comparing candidates against it
+    public static byte[] getDictionaryV1() {
+        return DICTIONARY_V1.clone();
+    }
+
+    // With a candidate dictionary, or none if it is null; only DICTIONARY_V1 output can be stored
+    public static byte[] deflate(byte[] input, byte[] dictionary) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        if (dictionary != null) {
+            deflater.setDictionary(dictionary);
+        }
+        deflater.setInput(input);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length / 2 + 16);
+        byte[] buf = new byte[Math.max(64, Math.min(input.length, 8192))];
+        while (!deflater.finished()) {
+            int n = deflater.deflate(buf);
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] inflate(byte[] input, byte[] dictionary) throws DataFormatException {
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        if (dictionary != null) {
+            inflater.setDictionary(dictionary);
+        }
+        inflater.setInput(input);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+        byte[] buf = new byte[Math.max(256, Math.min(input.length * 4, 65536))];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(buf);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Truncated compressed message");
+            }
+            out.write(buf, 0, n);
+            if (out.size() > MAX_INFLATED_BYTES) {
+                throw new DataFormatException("Compressed message expands beyond " + MAX_INFLATED_BYTES + " bytes");
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,142 @@
+package com.securechat.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Sends writes to the primary and spreads reads over the replicas, picking the
+ * healthy replica with the fewest outstanding connections. For a short window
+ * after a write, reads stay on the primary so the user sees their own changes.
+ */
+public class RoutingDataSource {
+    private final DBNode primary;
+    private final List<DBNode> replicas;
+    private volatile long stickyMillis;
+    private volatile long lastWriteMillis;
+    private volatile long maxLatencyMillis;
+    private ScheduledExecutorService healthChecker;
+
+    public RoutingDataSource(DBNode primary, List<DBNode> replicas, long stickyMillis) {
+        this.primary = primary;
+        this.replicas = new ArrayList<>(replicas);
+        this.stickyMillis = stickyMillis;
+    }
+
+    public Connection getWriteConnection() throws SQLException {
+        lastWriteMillis = System.currentTimeMillis();
+        return primary.open();
+    }
+
+    // Primary connection that does not pin the user's reads to the primary
+    public Connection getBackgroundConnection() throws SQLException {
+        return primary.open();
+    }
+
+    // Opens one idle connection per healthy node ahead of the first request
+    public void warm() throws SQLException {
+        primary.warm();
+        for (DBNode node : replicas) {
+            if (node.isHealthy()) {
+                node.warm();
+            }
+        }
+    }
+
+    public void setMaxIdle(int maxIdle) {
+        primary.setMaxIdle(maxIdle);
+        for (DBNode node : replicas) {
+            node.setMaxIdle(maxIdle);
+        }
+    }
+
+    public Connection getReadConnection() throws SQLException {
+        if (System.currentTimeMillis() - lastWriteMillis < stickyMillis) {
+            return primary.open();
+        }
+        while (true) {
+            DBNode node = leastOutstandingReplica();
+            if (node == null) {
+                return primary.open();
+            }
+            try {
+                return node.open();
+            } catch (SQLException e) {
+                System.err.println("Replica " + node.getUrl() + " unavailable: " + e.getMessage());
+                node.markUnhealthy();
+            }
+        }
+    }
+
+    private DBNode leastOutstandingReplica() {
+        DBNode best = null;
+        for (DBNode node : replicas) {
+            if (node.isHealthy() && (best == null || node.getOutstanding() < best.getOutstanding())) {
+                best = node;
+            }
+        }
+        return best;
+    }
+
+    public void setStickyMillis(long stickyMillis) {
+        this.stickyMillis = stickyMillis;
+    }
+
+    /*
+     * Bounds every connect and read by the latency budget, so a blackholed
+     * node fails fast instead of hanging the caller or the health checker.
+     * Reads get more headroom than a ping since real queries return rows.
+     */
+    public void setTimeouts(long maxLatencyMillis) {
+        long connectMillis = Math.max(1000, maxLatencyMillis * 4);
+        long socketMillis = Math.max(10_000, maxLatencyMillis * 20);
+        primary.setTimeouts(connectMillis, socketMillis);
+        for (DBNode node : replicas) {
+            node.setTimeouts(connectMillis, socketMillis);
+        }
+    }
+
+    public synchronized void startHealthChecks(long intervalMillis, long maxLatencyMillis) {
+        this.maxLatencyMillis = maxLatencyMillis;
+        setTimeouts(maxLatencyMillis);
+        if (healthChecker != null || replicas.isEmpty()) {
+            return;
+        }
+        healthChecker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "db-health-check");
+            t.setDaemon(true);
+            return t;
+        });
+        healthChecker.scheduleWithFixedDelay(() -> {
+            long limit = this.maxLatencyMillis;
+            int timeoutSeconds = (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(limit));
+            for (DBNode node : replicas) {
+                node.checkHealth(timeoutSeconds, limit);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void restartHealthChecks(long intervalMillis, long maxLatencyMillis) {
+        stopHealthChecks();
+        startHealthChecks(intervalMillis, maxLatencyMillis);
+    }
+
+    public synchronized void stopHealthChecks() {
+        if (healthChecker != null) {
+            healthChecker.shutdownNow();
+            healthChecker = null;
+        }
+    }
+
+    public DBNode getPrimary() {
+        return primary;
+    }
+
+    public List<DBNode> getReplicas() {
+        return replicas;
+    }
+}
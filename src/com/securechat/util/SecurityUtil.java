@@ -12,9 +12,17 @@ import java.security.spec.AlgorithmParameterSpec;
 import java.util.Base64;
 
 public class SecurityUtil {
-   private static final String ALGORITHM = "AES/CBC/PKCS5Padding";
+   private static final String ALGORITHM = AppConfig.get().getCryptoAlgorithm();
     private static final int KEY_SIZE = 256;
     private static final int IV_SIZE = 16;
+    // Compressed payloads are [format][IV][ciphertext]. Legacy payloads have no format byte,
+    // so their length is a whole number of blocks and the two can be told apart by length.
+    // That only holds for padded block modes, which AppConfig requires for compression.
+    private static final int BLOCK_SIZE = 16;
+    private static final boolean BLOCK_PADDED = ALGORITHM.endsWith("/PKCS5Padding");
+    private static final byte FORMAT_PLAIN = 0;
+    private static final byte FORMAT_DEFLATE_V1 = 1;
+    private static final SecureRandom RANDOM = new SecureRandom();
     //here
     private static final byte[] STATIC_KEY_BYTES= "ThisIsASecretKey1234567890123456".getBytes();
 //    static {
@@ -37,42 +45,75 @@ public class SecurityUtil {
 //        return keyGenerator.generateKey();
 //    }
     
+    // Pays the one-time JCE provider, cipher and digest setup cost up front
+    public static void warmUp() throws Exception {
+        decrypt(encrypt("warm-up", getStaticKey()), getStaticKey());
+        decrypt(encrypt("warm-up", getStaticKey(), true, 0), getStaticKey());
+        hashPassword("warm-up", generateSalt());
+    }
+    
     public static String encrypt(String input, SecretKey key) throws Exception {
+        AppConfig config = AppConfig.get();
+        return encrypt(input, key, config.isCryptoCompress(), config.getCryptoCompressMinBytes());
+    }
+    
+    // Compresses before encrypting, since ciphertext no longer compresses
+    public static String encrypt(String input, SecretKey key, boolean compress, int compressMinBytes) throws Exception {
+        byte[] plain = input.getBytes("UTF-8");
+        byte format = FORMAT_PLAIN;
+        if (compress && plain.length >= compressMinBytes) {
+            byte[] packed = MessageCodec.deflate(plain);
+            // Incompressible text is stored as is
+            if (packed.length < plain.length) {
+                plain = packed;
+                format = FORMAT_DEFLATE_V1;
+            }
+        }
+        
         byte[] iv = new byte[IV_SIZE];
-        new SecureRandom().nextBytes(iv);
+        RANDOM.nextBytes(iv);
         AlgorithmParameterSpec ivSpec = new IvParameterSpec(iv);
         
         Cipher cipher = Cipher.getInstance(ALGORITHM);
         cipher.init(Cipher.ENCRYPT_MODE, key, ivSpec);
-        byte[] encrypted = cipher.doFinal(input.getBytes("UTF-8"));
+        byte[] encrypted = cipher.doFinal(plain);
         
-        // Combine IV and encrypted data
-        byte[] combined = new byte[iv.length + encrypted.length];
-        System.arraycopy(iv, 0, combined, 0, iv.length);
-        System.arraycopy(encrypted, 0, combined, iv.length, encrypted.length);
+        // Combine format, IV and encrypted data; without compression the legacy layout is kept
+        int offset = compress ? 1 : 0;
+        byte[] combined = new byte[offset + iv.length + encrypted.length];
+        if (compress) {
+            combined[0] = format;
+        }
+        System.arraycopy(iv, 0, combined, offset, iv.length);
+        System.arraycopy(encrypted, 0, combined, offset + iv.length, encrypted.length);
         
         return Base64.getEncoder().encodeToString(combined);
     }
     
     public static String decrypt(String input, SecretKey key) throws Exception {
         byte[] combined = Base64.getDecoder().decode(input);
+        int offset = BLOCK_PADDED && combined.length % BLOCK_SIZE == 1 ? 1 : 0;
+        byte format = offset == 1 ? combined[0] : FORMAT_PLAIN;
+        if (format != FORMAT_PLAIN && format != FORMAT_DEFLATE_V1) {
+            throw new IllegalArgumentException("Unknown message format " + format);
+        }
         byte[] iv = new byte[IV_SIZE];
-        System.arraycopy(combined, 0, iv, 0, iv.length);
+        System.arraycopy(combined, offset, iv, 0, iv.length);
         AlgorithmParameterSpec ivSpec = new IvParameterSpec(iv);
         
         Cipher cipher = Cipher.getInstance(ALGORITHM);
         cipher.init(Cipher.DECRYPT_MODE, key, ivSpec);
-        byte[] encrypted = new byte[combined.length - IV_SIZE];
-        System.arraycopy(combined, IV_SIZE, encrypted, 0, encrypted.length);
-        byte[] decrypted = cipher.doFinal(encrypted);
+        byte[] decrypted = cipher.doFinal(combined, offset + IV_SIZE, combined.length - offset - IV_SIZE);
+        if (format == FORMAT_DEFLATE_V1) {
+            decrypted = MessageCodec.inflate(decrypted);
+        }
         
         return new String(decrypted, "UTF-8");
     }
     
     public static String generateSalt() {
-        SecureRandom random = new SecureRandom();
         byte[] salt = new byte[16];
-        random.nextBytes(salt);
+        RANDOM.nextBytes(salt);
         return Base64.getEncoder().encodeToString(salt);
     }
     
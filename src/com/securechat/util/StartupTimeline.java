@@ -0,0 +1,43 @@
+package com.securechat.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Records named points from JVM start to the first usable window and on to a
+ * completed login. Times count from JVM start, not from main(), so JVM boot
+ * and class loading (what AppCDS speeds up) show up before the "main" mark.
+ * Enable with -Dsecurechat.startup.trace=true; the timeline is printed to
+ * System.err when the login form and the chat window appear.
+ */
+public class StartupTimeline {
+    private static final boolean ENABLED = Boolean.getBoolean("securechat.startup.trace");
+    // nanoTime of JVM start; java.management is only loaded when tracing
+    private static final long START = ENABLED ? jvmStartNanos() : 0;
+    private static final List<String> marks = new ArrayList<>();
+
+    public static void mark(String event) {
+        if (ENABLED) {
+            long millis = (System.nanoTime() - START) / 1_000_000;
+            synchronized (marks) {
+                marks.add(String.format("%6d ms  %-28s [%s]", millis, event, Thread.currentThread().getName()));
+            }
+        }
+    }
+
+    private static long jvmStartNanos() {
+        return System.nanoTime() - ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000;
+    }
+
+    public static void print(String heading) {
+        if (ENABLED) {
+            synchronized (marks) {
+                System.err.println("Startup timeline: " + heading);
+                for (String mark : marks) {
+                    System.err.println("  " + mark);
+                }
+            }
+        }
+    }
+}
@@ -1,19 +1,75 @@
 package securechatt;
 
 import com.securechat.gui.LoginForm;
+import com.securechat.util.AppConfig;
+import com.securechat.util.DBConnection;
+import com.securechat.util.SecurityUtil;
+import com.securechat.util.StartupTimeline;
 import javax.swing.*;
 
 public class SecureChatApp {
-    public static void main(String[] args) {
+    // Set by "ant cds": exit once the login form is up so the JVM can dump the class archive
+    private static final boolean CDS_TRAINING = Boolean.getBoolean("securechat.cds.training");
+
+    public static void main(String[] args) throws Exception {
+        StartupTimeline.mark("main");
+        try {
+            AppConfig.get().startWatching();
+        } catch (IllegalStateException e) {
+            System.err.println(e.getMessage());
+            JOptionPane.showMessageDialog(null, e.getMessage(), "Configuration Error", JOptionPane.ERROR_MESSAGE);
+            System.exit(1);
+        }
+        StartupTimeline.mark("config loaded");
+        
+        // Load the JDBC driver, open a pooled connection and initialise the JCE provider
+        // while the user is still typing, instead of on the first login
+        Thread dbWarmer = startWarmer("prewarm-db", () -> {
+            DBConnection.prewarm();
+            StartupTimeline.mark("database connection ready");
+        });
+        Thread cryptoWarmer = startWarmer("prewarm-crypto", () -> {
+            SecurityUtil.warmUp();
+            StartupTimeline.mark("crypto ready");
+        });
+        
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
             System.err.println("Error setting look and feel: " + e.getMessage());
         }
+        StartupTimeline.mark("look and feel set");
         
         // Show login form
         SwingUtilities.invokeLater(() -> {
             new LoginForm().setVisible(true);
+            StartupTimeline.mark("login form visible");
+            StartupTimeline.print("login form shown");
         });
+        
+        if (CDS_TRAINING) {
+            dbWarmer.join();
+            cryptoWarmer.join();
+            SwingUtilities.invokeAndWait(() -> { });
+            System.exit(0);
+        }
+    }
+    
+    private interface Warmup {
+        void run() throws Exception;
+    }
+    
+    private static Thread startWarmer(String name, Warmup warmup) {
+        Thread t = new Thread(() -> {
+            try {
+                warmup.run();
+            } catch (Exception e) {
+                // Not fatal: the first real request will retry and report the error
+                System.err.println("Pre-warm " + name + " failed: " + e.getMessage());
+            }
+        }, name);
+        t.setDaemon(true);
+        t.start();
+        return t;
     }
 }